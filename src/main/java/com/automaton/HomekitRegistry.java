@@ -7,7 +7,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.automaton.accessories.Accessory;
+import com.automaton.characteristics.AbstractCharacteristic;
 import com.automaton.characteristics.Characteristic;
+import com.automaton.characteristics.CharacteristicStateStore;
+import com.automaton.http.AccessoryTemplate;
 
 public class HomekitRegistry {
     private static final Logger logger = LoggerFactory.getLogger(HomekitRegistry.class);
@@ -15,39 +18,64 @@ public class HomekitRegistry {
     private final Map<Integer, Accessory> accessories = new ConcurrentHashMap<>();
     private final Map<Accessory, List<AbstractAccessoryService>> services = new ConcurrentHashMap<>();
     private final Map<Accessory, Map<Integer, Characteristic>> characteristics = new ConcurrentHashMap<>();
+    private final Map<Accessory, AccessoryTemplate> templates = new ConcurrentHashMap<>();
 
     private final String label;
+    private final CharacteristicStateStore states;
 
     private boolean isAllowUnauthenticatedRequests = false;
 
     public HomekitRegistry(String label) {
+        this(label, CharacteristicStateStore.INSTANCE);
+    }
+
+    public HomekitRegistry(String label, CharacteristicStateStore states) {
         this.label = label;
+        this.states = states;
     }
 
     public synchronized void reset() {
         this.characteristics.clear();
         this.services.clear();
-        for (Accessory accessory : this.accessories.values()) {
-            List<AbstractAccessoryService> newServices = new ArrayList<>();
-            try {
-                newServices.add(new AccessoryServices.AccessoryInformationService(accessory));
-                newServices.addAll(accessory.getServices());
-            } catch (Exception e) {
-                logger.error("Could not instantiate services for accessory " + accessory.getLabel(), e);
-                this.services.put(accessory, Collections.emptyList());
-                continue;
-            }
-            this.services.put(accessory, newServices);
-
-            Map<Integer, Characteristic> newCharacteristics = new HashMap<>();
-            int iid = 0;
-            for (AbstractAccessoryService service : newServices) {
-                iid++;
-                for (Characteristic characteristic : service.getCharacteristics())
-                    newCharacteristics.put(Integer.valueOf(++iid), characteristic);
+        this.templates.clear();
+        for (Accessory accessory : this.accessories.values())
+            build(accessory);
+    }
+
+    /**
+     * Rebuilds a single accessory, the others keep their services and listing templates.
+     */
+    public synchronized void reset(Accessory accessory) {
+        if (this.accessories.get(accessory.getId()) == accessory)
+            build(accessory);
+    }
+
+    private void build(Accessory accessory) {
+        List<AbstractAccessoryService> newServices = new ArrayList<>();
+        try {
+            newServices.add(new AccessoryServices.AccessoryInformationService(accessory));
+            newServices.addAll(accessory.getServices());
+        } catch (Exception e) {
+            logger.error("Could not instantiate services for accessory " + accessory.getLabel(), e);
+            this.services.put(accessory, Collections.emptyList());
+            this.characteristics.remove(accessory);
+            this.templates.put(accessory, AccessoryTemplate.build(accessory.getId(), Collections.emptyList()));
+            return;
+        }
+        this.services.put(accessory, newServices);
+
+        Map<Integer, Characteristic> newCharacteristics = new HashMap<>();
+        int iid = 0;
+        for (AbstractAccessoryService service : newServices) {
+            iid++;
+            for (Characteristic characteristic : service.getCharacteristics()) {
+                newCharacteristics.put(Integer.valueOf(++iid), characteristic);
+                if (characteristic instanceof AbstractCharacteristic)
+                    ((AbstractCharacteristic<?>) characteristic).restore(this.states, accessory.getId(), iid);
             }
-            this.characteristics.put(accessory, newCharacteristics);
         }
+        this.characteristics.put(accessory, newCharacteristics);
+        this.templates.put(accessory, AccessoryTemplate.build(accessory.getId(), newServices));
     }
 
     public String getLabel() {
@@ -69,12 +97,29 @@ public class HomekitRegistry {
         return Collections.unmodifiableMap(characteristics);
     }
 
-    public void add(Accessory accessory) {
-        this.accessories.put(Integer.valueOf(accessory.getId()), accessory);
+    /**
+     * @return the accessory's pre-serialized listing entry, null until it has been built.
+     */
+    public AccessoryTemplate getTemplate(Integer aid) {
+        Accessory accessory = this.accessories.get(aid);
+        return accessory == null ? null : this.templates.get(accessory);
+    }
+
+    public synchronized void add(Accessory accessory) {
+        Accessory previous = this.accessories.put(Integer.valueOf(accessory.getId()), accessory);
+        if (previous != null && previous != accessory)
+            drop(previous);
     }
 
-    public void remove(Accessory accessory) {
+    public synchronized void remove(Accessory accessory) {
         this.accessories.remove(Integer.valueOf(accessory.getId()));
+        drop(accessory);
+    }
+
+    private void drop(Accessory accessory) {
+        this.services.remove(accessory);
+        this.characteristics.remove(accessory);
+        this.templates.remove(accessory);
     }
 
     public boolean isAllowUnauthenticatedRequests() {
@@ -2,6 +2,7 @@ package com.automaton;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
@@ -9,6 +10,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.automaton.accessories.Accessory;
+import com.automaton.characteristics.Characteristic;
+import com.automaton.characteristics.EventableCharacteristic;
 import com.automaton.http.HomekitConnectionFactory;
 import com.automaton.http.NettyHttpServer;
 import com.automaton.security.Authenticator;
@@ -48,16 +51,17 @@ public class HomekitRoot {
         this.registry.add(accessory);
         logger.info("Added accessory " + accessory.getLabel());
         if (this.started) {
-            this.registry.reset();
+            this.registry.reset(accessory);
+            trackHistory(accessory);
             this.webHandler.resetConnections();
         }
     }
 
     public void removeAccessory(Accessory accessory) {
         this.registry.remove(accessory);
+        this.subscriptions.untrack(accessory.getId());
         logger.info("Removed accessory " + accessory.getLabel());
         if (this.started) {
-            this.registry.reset();
             this.webHandler.resetConnections();
         }
     }
@@ -65,6 +69,8 @@ public class HomekitRoot {
     public void start() throws InterruptedException, ExecutionException {
         this.started = true;
         this.registry.reset();
+        for (Accessory accessory : this.registry.getAccessories())
+            trackHistory(accessory);
         CompletableFuture<Void> future = this.webHandler
                 .start(new HomekitConnectionFactory(this.registry, this.subscriptions, this.advertiser))
                 .thenAccept(port -> {
@@ -79,6 +85,19 @@ public class HomekitRoot {
         future.get();
     }
 
+    /**
+     * Sensor readings are recorded in the history from the start, not only while a controller is subscribed.
+     */
+    private void trackHistory(Accessory accessory) {
+        for (Map.Entry<Integer, Characteristic> entry : this.registry.getCharacteristics(accessory.getId())
+                .entrySet()) {
+            Characteristic characteristic = entry.getValue();
+            if (characteristic instanceof EventableCharacteristic
+                    && ((EventableCharacteristic) characteristic).isRecorded())
+                this.subscriptions.track(accessory.getId(), entry.getKey(), (EventableCharacteristic) characteristic);
+        }
+    }
+
     public void stop() {
         this.advertiser.stop();
         this.webHandler.shutdown();
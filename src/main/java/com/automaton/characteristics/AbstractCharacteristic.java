@@ -3,6 +3,7 @@ package com.automaton.characteristics;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
@@ -12,6 +13,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.automaton.accessories.*;
+import com.automaton.http.HapJsonWriter;
 
 public abstract class AbstractCharacteristic<T> implements Characteristic {
     private final Logger logger = LoggerFactory.getLogger(AbstractCharacteristic.class);
@@ -23,6 +25,14 @@ public abstract class AbstractCharacteristic<T> implements Characteristic {
     private final boolean isEventable;
     private final String description;
 
+    private CharacteristicStateStore store;
+    private int aid;
+    private int iid;
+    private volatile T restored;
+    private volatile T recorded;
+    private volatile T lastKnown;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
     public AbstractCharacteristic(String type, String format, boolean isWritable, boolean isReadable,
             String description) {
         if (type == null || format == null || description == null) {
@@ -40,45 +50,148 @@ public abstract class AbstractCharacteristic<T> implements Characteristic {
         return makeBuilder(iid).thenApply(builder -> builder.build());
     }
 
+    /**
+     * Binds the characteristic to its place in the registry and picks up the value recorded before the restart. The
+     * restored value answers reads only until the device has answered once, the first read asks it.
+     */
+    public void restore(CharacteristicStateStore store, int aid, int iid) {
+        if (!this.isWritable && !this.isEventable)
+            return;
+        this.store = store;
+        this.aid = aid;
+        this.iid = iid;
+        JsonValue value = store.get(aid, iid, this.type);
+        if (value == null)
+            return;
+        try {
+            this.restored = this.recorded = this.lastKnown = convert(value);
+        } catch (Exception e) {
+            this.logger.warn("Ignoring restored value {} of {}", value, getClass().getName(), e);
+        }
+    }
+
+    /**
+     * Called when the device reports a change, the restored value is stale from here on.
+     */
+    public void invalidate() {
+        this.restored = null;
+    }
+
+    private CompletableFuture<T> currentValue() {
+        T value = this.restored;
+        if (value == null)
+            return fetch();
+        // The device may have changed while we were down, its answer replaces the restored value.
+        if (this.refreshing.compareAndSet(false, true)) {
+            fetch().whenComplete((v, t) -> {
+                if (t == null)
+                    this.restored = null;
+                this.refreshing.set(false);
+            });
+        }
+        return CompletableFuture.completedFuture(value);
+    }
+
+    private CompletableFuture<T> fetch() {
+        return DevicePool.submit(this::getValue).thenApply(v -> {
+            if (v != null)
+                this.lastKnown = v;
+            record(v);
+            return v;
+        });
+    }
+
+    private void record(T value) {
+        if (this.store == null || value == null || value.equals(this.recorded))
+            return;
+        JsonObjectBuilder builder = Json.createObjectBuilder();
+        setJsonValue(builder, value);
+        JsonValue json = builder.build().get("value");
+        if (json == null)
+            return;
+        this.recorded = value;
+        this.store.record(this.aid, this.iid, this.type, json);
+    }
+
     protected CompletableFuture<JsonObjectBuilder> makeBuilder(int instanceId) {
-        return getValue().exceptionally(t -> {
+        return currentValue().exceptionally(t -> {
             this.logger.error("Could not retrieve value " + getClass().getName(), t);
             return null;
         }).thenApply(value -> {
-            JsonArrayBuilder perms = Json.createArrayBuilder();
-            if (this.isWritable) {
-                perms.add("pw");
-            }
-            if (this.isReadable) {
-                perms.add("pr");
-            }
-            if (this.isEventable) {
-                perms.add("ev");
-            }
-
-            JsonObjectBuilder builder = Json.createObjectBuilder().add("iid", instanceId).add("type", this.type)
-                    .add("perms", (JsonValue) perms.build()).add("format", this.format).add("events", false)
-                    .add("bonjour", false).add("description", this.description);
-            setJsonValue(builder, (T) value);
+            JsonObjectBuilder builder = describeBuilder(instanceId);
+            setJsonValue(builder, value);
+            addConstraints(builder);
             return builder;
         });
     }
 
+    public JsonObject describe(int instanceId, JsonValue value) {
+        JsonObjectBuilder builder = describeBuilder(instanceId).add("value", value);
+        addConstraints(builder);
+        return builder.build();
+    }
+
+    private JsonObjectBuilder describeBuilder(int instanceId) {
+        JsonArrayBuilder perms = Json.createArrayBuilder();
+        if (this.isWritable) {
+            perms.add("pw");
+        }
+        if (this.isReadable) {
+            perms.add("pr");
+        }
+        if (this.isEventable) {
+            perms.add("ev");
+        }
+        return Json.createObjectBuilder().add("iid", instanceId).add("type", this.type)
+                .add("perms", (JsonValue) perms.build()).add("format", this.format).add("events", false)
+                .add("bonjour", false).add("description", this.description);
+    }
+
+    /**
+     * Adds the fields that follow the value, such as the range of a number.
+     */
+    protected void addConstraints(JsonObjectBuilder builder) {
+    }
+
     public final void setValue(JsonValue jsonValue) {
         try {
-            setValue(convert(jsonValue));
+            apply(jsonValue);
         } catch (Exception e) {
             this.logger.error("Error while setting JSON value", e);
         }
     }
 
-    public void supplyValue(JsonObjectBuilder builder) {
+    public final CompletableFuture<Void> writeValue(JsonValue jsonValue) {
+        return DevicePool.submit(() -> {
+            apply(jsonValue);
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    private void apply(JsonValue jsonValue) throws Exception {
+        T value;
         try {
-            setJsonValue(builder, getValue().get());
-        } catch (InterruptedException | java.util.concurrent.ExecutionException e) {
-            this.logger.error("Error retrieving value", e);
-            setJsonValue(builder, getDefault());
+            value = convert(jsonValue);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid value " + jsonValue, e);
         }
+        setValue(value);
+        this.restored = null;
+        this.lastKnown = value;
+        record(value);
+    }
+
+    public final CompletableFuture<Object> readValue() {
+        return currentValue().thenApply(value -> value);
+    }
+
+    public final Object getCachedValue() {
+        return this.lastKnown;
+    }
+
+    @SuppressWarnings("unchecked")
+    public final void writeJson(HapJsonWriter writer, Object value) {
+        writeJsonValue(writer, (T) value);
     }
 
     protected abstract T convert(JsonValue paramJsonValue);
@@ -104,6 +217,27 @@ public abstract class AbstractCharacteristic<T> implements Characteristic {
         // Do not add null value, HomeKit cannot handle that
     }
 
+    /**
+     * Streaming counterpart of {@link #setJsonValue(JsonObjectBuilder, Object)}, the two must produce the same JSON.
+     */
+    protected void writeJsonValue(HapJsonWriter writer, T value) {
+        if (value instanceof Boolean) {
+            writer.name("value").value((Boolean) value);
+        } else if (value instanceof Double) {
+            writer.name("value").value((Double) value);
+        } else if (value instanceof Integer) {
+            writer.name("value").value((Integer) value);
+        } else if (value instanceof Long) {
+            writer.name("value").value((Long) value);
+        } else if (value instanceof BigInteger) {
+            writer.name("value").value((BigInteger) value);
+        } else if (value instanceof BigDecimal) {
+            writer.name("value").value((BigDecimal) value);
+        } else if (value != null) {
+            writer.name("value").value(value.toString());
+        }
+    }
+
     protected abstract CompletableFuture<T> getValue();
 
     protected abstract T getDefault();
@@ -138,6 +272,10 @@ public abstract class AbstractCharacteristic<T> implements Characteristic {
         protected final void setJsonValue(JsonObjectBuilder builder, Boolean value) {
             // Do nothing - non-readable characteristics cannot have a value key set
         }
+
+        @Override
+        protected final void writeJsonValue(HapJsonWriter writer, Boolean value) {
+        }
     }
 
     public static class Identify extends WriteOnlyBooleanCharacteristic {
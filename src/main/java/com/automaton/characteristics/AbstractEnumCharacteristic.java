@@ -21,9 +21,8 @@ public abstract class AbstractEnumCharacteristic extends AbstractCharacteristic<
     }
 
     @Override
-    protected CompletableFuture<JsonObjectBuilder> makeBuilder(int iid) {
-        return super.makeBuilder(iid)
-                .thenApply(builder -> builder.add("minValue", 0).add("maxValue", maxValue).add("minStep", 1));
+    protected void addConstraints(JsonObjectBuilder builder) {
+        builder.add("minValue", 0).add("maxValue", maxValue).add("minStep", 1);
     }
 
     @Override
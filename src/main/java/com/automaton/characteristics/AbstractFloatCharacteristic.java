@@ -30,8 +30,8 @@ public abstract class AbstractFloatCharacteristic extends AbstractCharacteristic
     }
 
     @Override
-    protected CompletableFuture<JsonObjectBuilder> makeBuilder(int iid) {
-        return super.makeBuilder(iid).thenApply(builder -> builder.add("minValue", minValue).add("maxValue", maxValue).add("minStep", minStep).add("unit", unit));
+    protected void addConstraints(JsonObjectBuilder builder) {
+        builder.add("minValue", minValue).add("maxValue", maxValue).add("minStep", minStep).add("unit", unit);
     }
 
     @Override
@@ -71,6 +71,9 @@ public abstract class AbstractFloatCharacteristic extends AbstractCharacteristic
     protected abstract CompletableFuture<Double> getDoubleValue();
 
     public static class AmbientLightLevelCharacteristic extends AbstractFloatCharacteristic implements EventableCharacteristic {
+        // Light readings flicker, only a change of a tenth or at least one lux is news.
+        private static final EventPolicy POLICY = EventPolicy.configured("AmbientLightLevel",
+                EventPolicy.ALWAYS.minInterval(5000).deadband(1, 0.1).maxRate(6, 60000));
         private final LightSensor lightSensor;
 
         public AmbientLightLevelCharacteristic(LightSensor lightSensor) {
@@ -97,6 +100,16 @@ public abstract class AbstractFloatCharacteristic extends AbstractCharacteristic
         protected CompletableFuture<Double> getDoubleValue() {
             return lightSensor.getCurrentAmbientLightLevel();
         }
+
+        @Override
+        public EventPolicy getEventPolicy() {
+            return POLICY;
+        }
+
+        @Override
+        public boolean isRecorded() {
+            return true;
+        }
     }
 
     public static class Hue extends AbstractFloatCharacteristic implements EventableCharacteristic {
@@ -129,6 +142,8 @@ public abstract class AbstractFloatCharacteristic extends AbstractCharacteristic
     }
 
     public static class Humidity extends AbstractFloatCharacteristic implements EventableCharacteristic {
+        private static final EventPolicy POLICY = EventPolicy.configured("Humidity",
+                EventPolicy.ALWAYS.minInterval(5000).deadband(1, 0).maxRate(6, 60000));
         private final HumiditySensor sensor;
 
         public Humidity(HumiditySensor sensor) {
@@ -155,6 +170,16 @@ public abstract class AbstractFloatCharacteristic extends AbstractCharacteristic
         protected CompletableFuture<Double> getDoubleValue() {
             return sensor.getCurrentRelativeHumidity();
         }
+
+        @Override
+        public EventPolicy getEventPolicy() {
+            return POLICY;
+        }
+
+        @Override
+        public boolean isRecorded() {
+            return true;
+        }
     }
 
     public static class Saturation extends AbstractFloatCharacteristic implements EventableCharacteristic {
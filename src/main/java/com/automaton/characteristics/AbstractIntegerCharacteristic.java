@@ -21,9 +21,8 @@ public abstract class AbstractIntegerCharacteristic extends AbstractCharacterist
         this.unit = unit;
     }
 
-    protected CompletableFuture<JsonObjectBuilder> makeBuilder(int iid) {
-        return super.makeBuilder(iid).thenApply(builder -> builder.add("minValue", this.minValue)
-                .add("maxValue", this.maxValue).add("minStep", 1).add("unit", this.unit));
+    protected void addConstraints(JsonObjectBuilder builder) {
+        builder.add("minValue", this.minValue).add("maxValue", this.maxValue).add("minStep", 1).add("unit", this.unit);
     }
 
     protected Integer getDefault() {
@@ -86,6 +85,11 @@ public abstract class AbstractIntegerCharacteristic extends AbstractCharacterist
         public void unsubscribe() {
             this.unsubscriber.run();
         }
+
+        @Override
+        public boolean isRecorded() {
+            return true;
+        }
     }
 
     public static class FanSpeed extends AbstractIntegerCharacteristic implements EventableCharacteristic {
@@ -15,8 +15,8 @@ public abstract class AbstractStaticCharacteristic extends AbstractCharacteristi
         this.value = value;
     }
 
-    protected CompletableFuture<JsonObjectBuilder> makeBuilder(int iid) {
-        return super.makeBuilder(iid).thenApply(builder -> builder.add("maxLen", 255));
+    protected void addConstraints(JsonObjectBuilder builder) {
+        builder.add("maxLen", 255);
     }
 
     public String convert(JsonValue jsonValue) {
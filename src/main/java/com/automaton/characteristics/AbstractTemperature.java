@@ -37,6 +37,8 @@ public abstract class AbstractTemperature extends AbstractFloatCharacteristic im
     }
 
     public static class Temperature extends AbstractTemperature {
+        private static final EventPolicy POLICY = EventPolicy.configured("Temperature",
+                EventPolicy.ALWAYS.minInterval(5000).deadband(0.2, 0).maxRate(6, 60000));
         private final TemperatureSensor sensor;
 
         public Temperature(TemperatureSensor thermostat) {
@@ -56,6 +58,16 @@ public abstract class AbstractTemperature extends AbstractFloatCharacteristic im
             return this.sensor.getCurrentTemperature();
         }
 
+        @Override
+        public EventPolicy getEventPolicy() {
+            return POLICY;
+        }
+
+        @Override
+        public boolean isRecorded() {
+            return true;
+        }
+
         protected void setValue(Double value) throws Exception {
         }
     }
@@ -4,10 +4,41 @@ import java.util.concurrent.CompletableFuture;
 
 import javax.json.*;
 
+import com.automaton.http.HapJsonWriter;
+
 public interface Characteristic {
-    void supplyValue(JsonObjectBuilder paramJsonObjectBuilder);
+    /**
+     * Reads the current value without blocking the caller. Pass the result to {@link #writeJson(HapJsonWriter, Object)}.
+     * A failed device read completes the future exceptionally with the device's cause, a full {@link DevicePool} with
+     * {@link java.util.concurrent.RejectedExecutionException}; no default value is made up, callers turn the cause
+     * into a status.
+     */
+    CompletableFuture<Object> readValue();
+
+    /**
+     * @return the last value read from or written to the device, for when the device does not answer in time. Null
+     *         if no value is known yet.
+     */
+    Object getCachedValue();
+
+    /**
+     * Writes the "value" member for a value from {@link #readValue()}, nothing if the characteristic reports none.
+     */
+    void writeJson(HapJsonWriter writer, Object value);
+
+    /**
+     * Applies a value written by a controller on the {@link DevicePool}. Fails with
+     * {@link IllegalArgumentException} if the value does not fit the characteristic, or with whatever the device
+     * threw.
+     */
+    CompletableFuture<Void> writeValue(JsonValue value);
 
     CompletableFuture<JsonObject> toJson(int paramInt);
 
+    /**
+     * The listing entry {@link #toJson(int)} would produce, with {@code value} in place of the device's value.
+     */
+    JsonObject describe(int instanceId, JsonValue value);
+
     void setValue(JsonValue paramJsonValue);
 }
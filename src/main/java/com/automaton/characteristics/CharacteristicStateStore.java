@@ -0,0 +1,72 @@
+package com.automaton.characteristics;
+
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import javax.json.*;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.automaton.server.DBCodec;
+import com.automaton.server.FileBasedDB;
+
+/**
+ * Last known value of every characteristic, keyed by aid.iid, so reads after a restart can be answered before the
+ * devices have reported anything.
+ *
+ * Values are kept as [type, value] JSON, the type guards against an iid that now belongs to another characteristic.
+ */
+public class CharacteristicStateStore {
+    private static final Logger logger = LoggerFactory.getLogger(CharacteristicStateStore.class);
+
+    private static final FileBasedDB STATE_DB = new FileBasedDB("characteristic-state");
+    public static final CharacteristicStateStore INSTANCE = new CharacteristicStateStore(STATE_DB);
+
+    private static final DBCodec<JsonArray> CODEC = new DBCodec<JsonArray>() {
+        public JsonArray decode(ByteBuffer buffer) {
+            String json = StandardCharsets.UTF_8.decode(buffer).toString();
+            try (JsonReader reader = Json.createReader(new StringReader(json))) {
+                return reader.readArray();
+            }
+        }
+
+        public byte[] encode(JsonArray value) {
+            return value.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    };
+
+    private final FileBasedDB db;
+
+    public CharacteristicStateStore(FileBasedDB db) {
+        this.db = db;
+    }
+
+    /**
+     * @return the recorded value, or null when nothing was recorded for a characteristic of this type.
+     */
+    public JsonValue get(int aid, int iid, String type) {
+        try {
+            JsonArray state = this.db.get(key(aid, iid), CODEC);
+            if (state == null || !type.equals(state.getString(0)))
+                return null;
+            return state.get(1);
+        } catch (Exception e) {
+            logger.warn("Ignoring unreadable state of {}.{}", aid, iid, e);
+            return null;
+        }
+    }
+
+    public void record(int aid, int iid, String type, JsonValue value) {
+        try {
+            this.db.put(key(aid, iid), Json.createArrayBuilder().add(type).add(value).build(), CODEC);
+        } catch (Exception e) {
+            logger.error("Could not record the state of {}.{}", aid, iid, e);
+        }
+    }
+
+    private static String key(int aid, int iid) {
+        return aid + "." + iid;
+    }
+}
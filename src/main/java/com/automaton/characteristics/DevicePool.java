@@ -0,0 +1,95 @@
+package com.automaton.characteristics;
+
+import java.util.concurrent.*;
+
+import com.automaton.server.AutomatonConfiguration;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs driver calls, which may block on the network or the Z-Wave controller, on a small bounded pool so the HTTP
+ * threads only ever compose futures. Sized by "device.pool.threads" and "device.pool.queue"; once the queue is full
+ * new calls fail with {@link RejectedExecutionException} instead of piling up.
+ */
+public class DevicePool {
+    private static final int THREADS = AutomatonConfiguration.getInt("device.pool.threads", 8);
+    private static final int QUEUE = AutomatonConfiguration.getInt("device.pool.queue", 256);
+    private static final ThreadLocal<Boolean> DEVICE_THREAD = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    public static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(QUEUE), new ThreadFactoryBuilder().setNameFormat("device-%d").setDaemon(true)
+                    .setThreadFactory(r -> new Thread(() -> {
+                        DEVICE_THREAD.set(Boolean.TRUE);
+                        r.run();
+                    })).build());
+    static {
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("device-timer").setDaemon(true).build());
+
+    /**
+     * Makes the driver call on the pool and completes with the future it returns. Calls made from a device thread,
+     * such as a driver reporting a change while it handles a write, run inline so the pool cannot deadlock on itself.
+     */
+    public static <T> CompletableFuture<T> submit(Callable<CompletableFuture<T>> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        if (DEVICE_THREAD.get()) {
+            run(call, result);
+            return result;
+        }
+        try {
+            EXECUTOR.execute(() -> run(call, result));
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * @return a future that follows {@code future}, or fails with {@link TimeoutException} if it has not completed
+     *         within {@code timeoutMillis}. The call behind {@code future} is left to finish on its own.
+     */
+    public static <T> CompletableFuture<T> within(CompletableFuture<T> future, long timeoutMillis) {
+        if (future.isDone())
+            return future;
+        CompletableFuture<T> result = new CompletableFuture<>();
+        ScheduledFuture<?> timeout = TIMER.schedule(
+                () -> result.completeExceptionally(new TimeoutException("No answer in " + timeoutMillis + "ms")),
+                timeoutMillis, TimeUnit.MILLISECONDS);
+        future.whenComplete((value, t) -> {
+            timeout.cancel(false);
+            if (t != null)
+                result.completeExceptionally(t);
+            else
+                result.complete(value);
+        });
+        return result;
+    }
+
+    /**
+     * Runs {@code task} on the pool after {@code delayMillis}, dropping it if the pool is saturated by then.
+     */
+    public static void later(Runnable task, long delayMillis) {
+        TIMER.schedule(() -> {
+            try {
+                EXECUTOR.execute(task);
+            } catch (RejectedExecutionException e) {
+                // The pool is saturated, the task's work is stale by now anyway.
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static <T> void run(Callable<CompletableFuture<T>> call, CompletableFuture<T> result) {
+        try {
+            call.call().whenComplete((value, t) -> {
+                if (t != null)
+                    result.completeExceptionally(t);
+                else
+                    result.complete(value);
+            });
+        } catch (Throwable t) {
+            result.completeExceptionally(t);
+        }
+    }
+}
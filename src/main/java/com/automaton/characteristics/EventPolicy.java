@@ -0,0 +1,142 @@
+package com.automaton.characteristics;
+
+import java.util.concurrent.TimeUnit;
+
+import com.automaton.server.AutomatonConfiguration;
+
+/**
+ * Which changes of an {@link EventableCharacteristic} are worth an event, declared as
+ * {@code EventPolicy.ALWAYS.minInterval(5000).deadband(0.5, 0).maxRate(6, 60000)}:
+ * <ul>
+ * <li>minInterval: at least this many milliseconds between two events.</li>
+ * <li>deadband: a number must move by more than the larger of the absolute delta and the relative delta times the
+ * last published value.</li>
+ * <li>maxRate: at most this many events per period, allowing bursts up to that count.</li>
+ * </ul>
+ * Each subscription evaluates the policy with its own {@link Gate}.
+ */
+public final class EventPolicy {
+    public static final EventPolicy ALWAYS = new EventPolicy(0, 0, 0, 0, 0);
+
+    private final long minIntervalNanos;
+    private final double absoluteDelta;
+    private final double relativeDelta;
+    private final int maxEvents;
+    private final long ratePeriodNanos;
+
+    private EventPolicy(long minIntervalNanos, double absoluteDelta, double relativeDelta, int maxEvents,
+            long ratePeriodNanos) {
+        this.minIntervalNanos = minIntervalNanos;
+        this.absoluteDelta = absoluteDelta;
+        this.relativeDelta = relativeDelta;
+        this.maxEvents = maxEvents;
+        this.ratePeriodNanos = ratePeriodNanos;
+    }
+
+    public EventPolicy minInterval(long millis) {
+        return new EventPolicy(TimeUnit.MILLISECONDS.toNanos(millis), absoluteDelta, relativeDelta, maxEvents,
+                ratePeriodNanos);
+    }
+
+    public EventPolicy deadband(double absolute, double relative) {
+        return new EventPolicy(minIntervalNanos, absolute, relative, maxEvents, ratePeriodNanos);
+    }
+
+    public EventPolicy maxRate(int events, long periodMillis) {
+        if (events > 0 && periodMillis <= 0)
+            throw new IllegalArgumentException("A rate of " + events + " events needs a period");
+        return new EventPolicy(minIntervalNanos, absoluteDelta, relativeDelta, events,
+                TimeUnit.MILLISECONDS.toNanos(periodMillis));
+    }
+
+    /**
+     * This policy with any of "events.policy.{name}.min_interval_ms", ".deadband_abs", ".deadband_rel",
+     * ".max_events" and ".rate_period_ms" that are configured.
+     */
+    public static EventPolicy configured(String name, EventPolicy defaults) {
+        String prefix = "events.policy." + name + ".";
+        long minInterval = AutomatonConfiguration.getLong(prefix + "min_interval_ms",
+                TimeUnit.NANOSECONDS.toMillis(defaults.minIntervalNanos));
+        double absolute = Double.parseDouble(
+                AutomatonConfiguration.getString(prefix + "deadband_abs", Double.toString(defaults.absoluteDelta)));
+        double relative = Double.parseDouble(
+                AutomatonConfiguration.getString(prefix + "deadband_rel", Double.toString(defaults.relativeDelta)));
+        int events = AutomatonConfiguration.getInt(prefix + "max_events", defaults.maxEvents);
+        long period = AutomatonConfiguration.getLong(prefix + "rate_period_ms",
+                TimeUnit.NANOSECONDS.toMillis(defaults.ratePeriodNanos));
+        return ALWAYS.minInterval(minInterval).deadband(absolute, relative).maxRate(events, period);
+    }
+
+    public boolean isAlways() {
+        return minIntervalNanos <= 0 && absoluteDelta <= 0 && relativeDelta <= 0 && maxEvents <= 0;
+    }
+
+    public Gate newGate() {
+        return new Gate(this);
+    }
+
+    /**
+     * The state of one subscription under the policy, nothing but primitives so a suppressed change costs no
+     * allocation. Times are {@link System#nanoTime()}.
+     */
+    public static final class Gate {
+        private final EventPolicy policy;
+        private boolean published;
+        private long lastNanos;
+        private double lastValue;
+        private double tokens;
+        private boolean refilled;
+        private long refillNanos;
+
+        Gate(EventPolicy policy) {
+            this.policy = policy;
+            this.tokens = policy.maxEvents;
+        }
+
+        /**
+         * @return how many nanoseconds until the time limits allow another event, 0 if they do now.
+         */
+        public synchronized long delay(long now) {
+            long wait = 0;
+            if (published && policy.minIntervalNanos > 0)
+                wait = Math.max(wait, lastNanos + policy.minIntervalNanos - now);
+            if (policy.maxEvents > 0) {
+                refill(now);
+                if (tokens < 1)
+                    wait = Math.max(wait, (long) ((1 - tokens) * policy.ratePeriodNanos / policy.maxEvents));
+            }
+            return wait;
+        }
+
+        /**
+         * Takes {@code value} as the one published if it passes the deadband and the time limits still allow it,
+         * non numeric values only have to pass the time limits.
+         *
+         * @return false if the change is to be suppressed.
+         */
+        public synchronized boolean accept(boolean numeric, double value, long now) {
+            if (delay(now) > 0)
+                return false;
+            if (numeric && published && !Double.isNaN(lastValue)) {
+                double threshold = Math.max(policy.absoluteDelta, policy.relativeDelta * Math.abs(lastValue));
+                if (Math.abs(value - lastValue) <= threshold && threshold > 0)
+                    return false;
+            }
+            published = true;
+            lastNanos = now;
+            lastValue = numeric ? value : Double.NaN;
+            if (policy.maxEvents > 0)
+                tokens--;
+            return true;
+        }
+
+        private void refill(long now) {
+            if (refilled) {
+                tokens = Math.min(policy.maxEvents,
+                        tokens + (double) (now - refillNanos) * policy.maxEvents / policy.ratePeriodNanos);
+            }
+            refilled = true;
+            refillNanos = now;
+        }
+    }
+}
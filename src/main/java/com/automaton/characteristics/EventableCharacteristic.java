@@ -4,4 +4,18 @@ public interface EventableCharacteristic extends Characteristic {
     void subscribe(CharacteristicCallback paramCharacteristicCallback);
 
     void unsubscribe();
+
+    /**
+     * Which changes reach the subscribers, every one unless overridden.
+     */
+    default EventPolicy getEventPolicy() {
+        return EventPolicy.ALWAYS;
+    }
+
+    /**
+     * Whether every change is kept in the history, even with no controller subscribed. Meant for sensor readings.
+     */
+    default boolean isRecorded() {
+        return false;
+    }
 }
@@ -0,0 +1,95 @@
+package com.automaton.history;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.automaton.server.AutomatonConfiguration;
+
+/**
+ * In memory history of numeric characteristic values, keyed by aid and iid.
+ *
+ * Samples are written into preallocated primitive arrays and raw chunks are recycled rather than released, so a steady
+ * stream of samples puts next to no load on the collector.
+ */
+public class HistoryStore {
+    private static final int RAW_CHUNKS = AutomatonConfiguration.getInt("history.raw_chunks", 16);
+    public static final HistoryStore INSTANCE = new HistoryStore(RAW_CHUNKS);
+
+    public enum Resolution {
+        RAW("raw", 0, 0),
+        MINUTE("1m", TimeUnit.MINUTES.toMillis(1), 24 * 60),
+        HOUR("1h", TimeUnit.HOURS.toMillis(1), 30 * 24),
+        DAY("1d", TimeUnit.DAYS.toMillis(1), 2 * 365);
+
+        public final String label;
+        final long width;
+        final int capacity;
+
+        Resolution(String label, long width, int capacity) {
+            this.label = label;
+            this.width = width;
+            this.capacity = capacity;
+        }
+
+        public static Resolution fromLabel(String label) {
+            for (Resolution resolution : values()) {
+                if (resolution.label.equals(label))
+                    return resolution;
+            }
+            throw new IllegalArgumentException("Unknown resolution " + label);
+        }
+    }
+
+    @FunctionalInterface
+    public interface SampleVisitor {
+        void accept(long time, double value);
+    }
+
+    @FunctionalInterface
+    public interface BucketVisitor {
+        void accept(long start, double min, double max, double avg, int count);
+    }
+
+    private final ConcurrentHashMap<Long, TimeSeries> series = new ConcurrentHashMap<>();
+    private final int rawChunks;
+
+    public HistoryStore(int rawChunks) {
+        this.rawChunks = rawChunks;
+    }
+
+    public void record(int aid, int iid, long time, double value) {
+        series(aid, iid).add(time, value);
+    }
+
+    /**
+     * @return the series of the characteristic, created on first use. Holding on to it saves the lookup per sample.
+     */
+    public TimeSeries series(int aid, int iid) {
+        Long key = key(aid, iid);
+        TimeSeries series = this.series.get(key);
+        return series != null ? series : this.series.computeIfAbsent(key, k -> new TimeSeries(this.rawChunks));
+    }
+
+    /**
+     * @return false when nothing was ever recorded for the characteristic.
+     */
+    public boolean query(int aid, int iid, long from, long to, SampleVisitor visitor) {
+        TimeSeries series = this.series.get(key(aid, iid));
+        if (series == null)
+            return false;
+        series.forEach(from, to, visitor);
+        return true;
+    }
+
+    public boolean query(int aid, int iid, Resolution resolution, long from, long to, BucketVisitor visitor) {
+        TimeSeries series = this.series.get(key(aid, iid));
+        if (series == null)
+            return false;
+        series.forEach(resolution, from, to, visitor);
+        return true;
+    }
+
+    private static Long key(int aid, int iid) {
+        return Long.valueOf(((long) aid << 32) | (iid & 0xFFFFFFFFL));
+    }
+}
@@ -0,0 +1,60 @@
+package com.automaton.history;
+
+/**
+ * Ring of min/max/sum/count buckets for one resolution, updated in place as samples arrive.
+ */
+class Rollup {
+    private final long width;
+    private final long[] starts;
+    private final double[] min;
+    private final double[] max;
+    private final double[] sum;
+    private final int[] count;
+    private long latest = Long.MIN_VALUE;
+
+    Rollup(long width, int capacity) {
+        this.width = width;
+        this.starts = new long[capacity];
+        this.min = new double[capacity];
+        this.max = new double[capacity];
+        this.sum = new double[capacity];
+        this.count = new int[capacity];
+    }
+
+    void add(long time, double value) {
+        long start = time - Math.floorMod(time, this.width);
+        int slot = slot(start);
+        if (this.starts[slot] != start || this.count[slot] == 0) {
+            this.starts[slot] = start;
+            this.min[slot] = value;
+            this.max[slot] = value;
+            this.sum[slot] = value;
+            this.count[slot] = 1;
+        } else {
+            this.min[slot] = Math.min(this.min[slot], value);
+            this.max[slot] = Math.max(this.max[slot], value);
+            this.sum[slot] += value;
+            this.count[slot]++;
+        }
+        this.latest = Math.max(this.latest, start);
+    }
+
+    void forEach(long from, long to, HistoryStore.BucketVisitor visitor) {
+        if (this.latest == Long.MIN_VALUE)
+            return;
+        // Buckets older than the ring have been overwritten already.
+        long oldest = this.latest - (this.starts.length - 1) * this.width;
+        long start = Math.max(from - Math.floorMod(from, this.width), oldest);
+        long end = Math.min(to, this.latest);
+        for (; start <= end; start += this.width) {
+            int slot = slot(start);
+            if (this.starts[slot] == start && this.count[slot] > 0)
+                visitor.accept(start, this.min[slot], this.max[slot], this.sum[slot] / this.count[slot],
+                        this.count[slot]);
+        }
+    }
+
+    private int slot(long start) {
+        return (int) Math.floorMod(start / this.width, (long) this.starts.length);
+    }
+}
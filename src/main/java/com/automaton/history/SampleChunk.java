@@ -0,0 +1,129 @@
+package com.automaton.history;
+
+import java.util.Arrays;
+
+/**
+ * Fixed size block of raw samples. Timestamps are delta-of-delta encoded into a bit stream, values are kept in a
+ * plain double column. The arrays are allocated once and reused when the chunk is recycled.
+ */
+class SampleChunk {
+    static final int CAPACITY = 1024;
+    // Worst case is a 4 bit prefix followed by a raw 64 bit delta per sample.
+    private static final int WORDS = (CAPACITY * 68 + 63) / 64;
+    // Payload width by the number of leading one bits of the prefix.
+    private static final int[] WIDTHS = { 0, 7, 12, 20, 64 };
+
+    private final long[] bits = new long[WORDS];
+    private final double[] values = new double[CAPACITY];
+    private int bitPosition;
+    private int size;
+    private long firstTime;
+    private long lastTime;
+    private long lastDelta;
+
+    boolean isFull() {
+        return this.size == CAPACITY;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    long firstTime() {
+        return this.firstTime;
+    }
+
+    long lastTime() {
+        return this.lastTime;
+    }
+
+    void reset() {
+        Arrays.fill(this.bits, 0, (this.bitPosition + 63) / 64, 0L);
+        this.bitPosition = 0;
+        this.size = 0;
+        this.lastDelta = 0;
+    }
+
+    void append(long time, double value) {
+        if (this.size == 0) {
+            this.firstTime = time;
+        } else {
+            long delta = time - this.lastTime;
+            writeDeltaOfDelta(delta - this.lastDelta);
+            this.lastDelta = delta;
+        }
+        this.lastTime = time;
+        this.values[this.size++] = value;
+    }
+
+    void forEach(long from, long to, HistoryStore.SampleVisitor visitor) {
+        if (this.size == 0 || this.lastTime < from || this.firstTime > to)
+            return;
+        int position = 0;
+        long time = this.firstTime;
+        long delta = 0;
+        for (int i = 0; i < this.size; i++) {
+            if (i > 0) {
+                // Prefix is up to four one bits terminated by a zero, see writeDeltaOfDelta.
+                int ones = 0;
+                while (ones < 4 && read(position++, 1) == 1)
+                    ones++;
+                long zigzag = ones == 0 ? 0 : read(position, WIDTHS[ones]);
+                position += WIDTHS[ones];
+                delta += (zigzag >>> 1) ^ -(zigzag & 1);
+                time += delta;
+            }
+            if (time > to)
+                return;
+            if (time >= from)
+                visitor.accept(time, this.values[i]);
+        }
+    }
+
+    /**
+     * 0 for an unchanged interval, 10, 110 and 1110 followed by 7, 12 and 20 bits, 1111 followed by the raw 64 bits.
+     */
+    private void writeDeltaOfDelta(long dod) {
+        long zigzag = (dod << 1) ^ (dod >> 63);
+        if (zigzag == 0) {
+            write(0, 1);
+        } else if (zigzag >>> 7 == 0) {
+            write(0b10, 2);
+            write(zigzag, 7);
+        } else if (zigzag >>> 12 == 0) {
+            write(0b110, 3);
+            write(zigzag, 12);
+        } else if (zigzag >>> 20 == 0) {
+            write(0b1110, 4);
+            write(zigzag, 20);
+        } else {
+            write(0b1111, 4);
+            write(zigzag, 64);
+        }
+    }
+
+    private void write(long value, int count) {
+        if (count < 64)
+            value &= (1L << count) - 1;
+        int word = this.bitPosition >>> 6;
+        int free = 64 - (this.bitPosition & 63);
+        if (count <= free) {
+            this.bits[word] |= value << (free - count);
+        } else {
+            int rest = count - free;
+            this.bits[word] |= value >>> rest;
+            this.bits[word + 1] |= value << (64 - rest);
+        }
+        this.bitPosition += count;
+    }
+
+    private long read(int position, int count) {
+        int word = position >>> 6;
+        int offset = position & 63;
+        int free = 64 - offset;
+        long value = (this.bits[word] << offset) >>> (64 - count);
+        if (count > free)
+            value |= this.bits[word + 1] >>> (64 - (count - free));
+        return value;
+    }
+}
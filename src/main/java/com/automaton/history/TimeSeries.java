@@ -0,0 +1,54 @@
+package com.automaton.history;
+
+import java.util.ArrayDeque;
+
+import com.automaton.history.HistoryStore.Resolution;
+
+/**
+ * Samples of a single characteristic. Raw samples are kept for a bounded number of chunks, the oldest chunk is
+ * recycled for new samples once the limit is reached. Rollups cover the longer periods.
+ */
+public class TimeSeries {
+    private final ArrayDeque<SampleChunk> chunks = new ArrayDeque<>();
+    private final int maxChunks;
+    private final Rollup[] rollups = new Rollup[Resolution.values().length];
+    private long lastTime = Long.MIN_VALUE;
+
+    TimeSeries(int maxChunks) {
+        this.maxChunks = maxChunks;
+        for (Resolution resolution : Resolution.values()) {
+            if (resolution != Resolution.RAW)
+                this.rollups[resolution.ordinal()] = new Rollup(resolution.width, resolution.capacity);
+        }
+    }
+
+    public synchronized void add(long time, double value) {
+        // Chunks are scanned in order, a clock stepping back must not break that.
+        time = Math.max(time, this.lastTime);
+        this.lastTime = time;
+        SampleChunk current = this.chunks.peekLast();
+        if (current == null || current.isFull()) {
+            if (this.chunks.size() >= this.maxChunks) {
+                current = this.chunks.pollFirst();
+                current.reset();
+            } else {
+                current = new SampleChunk();
+            }
+            this.chunks.addLast(current);
+        }
+        current.append(time, value);
+        for (Rollup rollup : this.rollups) {
+            if (rollup != null)
+                rollup.add(time, value);
+        }
+    }
+
+    synchronized void forEach(long from, long to, HistoryStore.SampleVisitor visitor) {
+        for (SampleChunk chunk : this.chunks)
+            chunk.forEach(from, to, visitor);
+    }
+
+    synchronized void forEach(Resolution resolution, long from, long to, HistoryStore.BucketVisitor visitor) {
+        this.rollups[resolution.ordinal()].forEach(from, to, visitor);
+    }
+}
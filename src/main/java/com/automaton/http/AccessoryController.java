@@ -1,17 +1,14 @@
 package com.automaton.http;
 
-import java.io.ByteArrayOutputStream;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 
-import javax.json.*;
-
-import com.automaton.AbstractAccessoryService;
 import com.automaton.HomekitRegistry;
 import com.automaton.accessories.Accessory;
-import com.automaton.characteristics.Characteristic;
 import com.automaton.http.HttpResponses.HapJsonResponse;
 
+import io.netty.buffer.ByteBufAllocator;
+
 public class AccessoryController {
     public AccessoryController(HomekitRegistry registry) {
         this.registry = registry;
@@ -19,53 +16,31 @@ public class AccessoryController {
 
     private final HomekitRegistry registry;
 
-    public HttpResponse listing() throws Exception {
-        JsonArrayBuilder accessories = Json.createArrayBuilder();
-
-        Map<Integer, List<CompletableFuture<JsonObject>>> accessoryServiceFutures = new HashMap<>();
+    /**
+     * Stitches the accessories' pre-serialized templates together, only the values are read per request.
+     */
+    public CompletableFuture<HttpResponse> listing() {
+        List<AccessoryTemplate> templates = new ArrayList<>();
+        List<CompletableFuture<Object[]>> values = new ArrayList<>();
         for (Accessory accessory : registry.getAccessories()) {
-            int iid = 0;
-            List<CompletableFuture<JsonObject>> serviceFutures = new ArrayList<>();
-            for (AbstractAccessoryService service : registry.getServices(Integer.valueOf(accessory.getId()))) {
-                serviceFutures.add(toJson(service, iid));
-                iid += service.getCharacteristics().size() + 1;
+            AccessoryTemplate template = registry.getTemplate(accessory.getId());
+            if (template != null) {
+                templates.add(template);
+                values.add(template.readValues());
             }
-            accessoryServiceFutures.put(accessory.getId(), serviceFutures);
         }
-
-        Map<Integer, JsonArrayBuilder> serviceArrayBuilders = new HashMap<>();
-        for (Map.Entry<Integer, List<CompletableFuture<JsonObject>>> entry : accessoryServiceFutures.entrySet()) {
-            JsonArrayBuilder arr = Json.createArrayBuilder();
-            for (CompletableFuture<JsonObject> future : entry.getValue())
-                arr.add((JsonValue) future.join());
-            serviceArrayBuilders.put(entry.getKey(), arr);
-        }
-
-        for (Accessory accessory : registry.getAccessories()) {
-            accessories.add(Json.createObjectBuilder().add("aid", accessory.getId()).add("services",
-                    serviceArrayBuilders.get(accessory.getId())));
-        }
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            Json.createWriter(baos).write(Json.createObjectBuilder().add("accessories", accessories).build());
-            return new HapJsonResponse(baos.toByteArray());
-        }
-    }
-
-    private CompletableFuture<JsonObject> toJson(AbstractAccessoryService service, int interfaceId) throws Exception {
-        JsonObjectBuilder builder = Json.createObjectBuilder().add("iid", ++interfaceId).add("type", service.getType());
-        List<Characteristic> characteristics = service.getCharacteristics();
-        Collection<CompletableFuture<JsonObject>> characteristicFutures = new ArrayList<>(characteristics.size());
-        for (Characteristic characteristic : characteristics) {
-            characteristicFutures.add(characteristic.toJson(++interfaceId));
-        }
-        return CompletableFuture
-                .allOf(characteristicFutures.toArray(new CompletableFuture[characteristicFutures.size()]))
-                .thenApply(v -> {
-                    JsonArrayBuilder jsonCharacteristics = Json.createArrayBuilder();
-                    characteristicFutures.stream().map(future -> future.join())
-                            .forEach(c -> jsonCharacteristics.add(c));
-                    builder.add("characteristics", jsonCharacteristics);
-                    return builder.build();
-                });
+        return CompletableFuture.allOf(values.toArray(new CompletableFuture<?>[values.size()])).thenApply(v -> {
+            HapJsonWriter writer = new HapJsonWriter(ByteBufAllocator.DEFAULT.heapBuffer());
+            try {
+                writer.startObject().startArray("accessories");
+                for (int i = 0; i < templates.size(); i++)
+                    templates.get(i).write(writer, values.get(i).join());
+                writer.endArray().endObject();
+            } catch (RuntimeException e) {
+                writer.buffer().release();
+                throw e;
+            }
+            return new HapJsonResponse(writer.buffer());
+        });
     }
 }
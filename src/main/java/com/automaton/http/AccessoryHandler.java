@@ -1,7 +1,13 @@
 package com.automaton.http;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,10 +16,17 @@ import io.netty.buffer.Unpooled;
 import io.netty.channel.*;
 import io.netty.handler.codec.http.*;
 
+/**
+ * Hands each request to the connection and writes the responses as they complete. Controllers may pipeline requests,
+ * so responses that complete early wait in {@link #pending} for the ones ahead of them. Only touched from the
+ * channel's executor.
+ */
 class AccessoryHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
     private final static Logger LOGGER = LoggerFactory.getLogger(AccessoryHandler.class);
 
     private HomekitConnection connection;
+    private EventQueue events;
+    private final Queue<CompletableFuture<HttpResponse>> pending = new ArrayDeque<>();
     private final HomekitConnectionFactory homekitClientConnectionFactory;
 
     public AccessoryHandler(HomekitConnectionFactory homekitClientConnectionFactory) {
@@ -22,12 +35,11 @@ class AccessoryHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
 
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
-        Channel channel = ctx.pipeline().channel();
-        this.connection = homekitClientConnectionFactory.createConnection(response -> {
-            if (!channel.isActive())
-                return;
-            channel.writeAndFlush(HttpResponses.createResponse(response));
-        });
+        this.events = new EventQueue(ctx);
+        SocketAddress remote = ctx.channel().remoteAddress();
+        boolean local = remote instanceof InetSocketAddress && ((InetSocketAddress) remote).getAddress() != null
+                && ((InetSocketAddress) remote).getAddress().isLoopbackAddress();
+        this.connection = homekitClientConnectionFactory.createConnection(events, local);
         LOGGER.info("New homekit connection from {}", ctx.channel().remoteAddress());
         super.channelActive(ctx);
     }
@@ -35,21 +47,45 @@ class AccessoryHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
         LOGGER.info("Terminated homekit connection from {}", ctx.channel().remoteAddress());
+        events.close();
+        connection.close();
         super.channelInactive(ctx);
     }
 
     @Override
     public void channelRead0(ChannelHandlerContext ctx, FullHttpRequest req) throws Exception {
+        CompletableFuture<HttpResponse> response;
         try {
-            HttpResponse response = connection.handleRequest(req);
+            response = connection.handleRequest(req);
+        } catch (Exception e) {
+            response = new CompletableFuture<>();
+            response.completeExceptionally(e);
+        }
+        pending.add(response);
+        if (response.isDone()) {
+            // Written before the next request is decoded, which an upgrade relies on.
+            writeCompleted(ctx);
+        } else {
+            response.whenComplete((r, t) -> ctx.executor().execute(() -> writeCompleted(ctx)));
+        }
+    }
+
+    private void writeCompleted(ChannelHandlerContext ctx) {
+        while (!pending.isEmpty() && pending.peek().isDone()) {
+            HttpResponse response;
+            try {
+                response = pending.poll().join();
+            } catch (CompletionException e) {
+                LOGGER.error("Error handling homekit http request", e.getCause());
+                sendResponse(HttpResponseStatus.INTERNAL_SERVER_ERROR, "Error: " + e.getCause().getMessage(), ctx);
+                continue;
+            }
             if (response.doUpgrade()) {
                 ChannelPipeline pipeline = ctx.channel().pipeline();
+                pipeline.addBefore(NettyHttpServer.HTTP_HANDLER_NAME, "frame", new HapFrameDecoder(connection));
                 pipeline.addBefore(NettyHttpServer.HTTP_HANDLER_NAME, "binary", new BinaryHandler(connection));
             }
             sendResponse(response, ctx);
-        } catch (Exception e) {
-            LOGGER.error("Error handling homekit http request", e);
-            sendResponse(HttpResponseStatus.INTERNAL_SERVER_ERROR, "Error: " + e.getMessage(), ctx);
         }
     }
 
@@ -73,6 +109,12 @@ class AccessoryHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
         ctx.flush();
     }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        events.writabilityChanged();
+        super.channelWritabilityChanged(ctx);
+    }
+
     public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
         ctx.flush();
         super.channelReadComplete(ctx);
@@ -0,0 +1,156 @@
+package com.automaton.http;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import javax.json.*;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.automaton.AbstractAccessoryService;
+import com.automaton.characteristics.AbstractStaticCharacteristic;
+import com.automaton.characteristics.Characteristic;
+import com.automaton.characteristics.DevicePool;
+
+/**
+ * One accessory's entry in the /accessories listing, serialized once when the registry is built.
+ *
+ * Each characteristic keeps the members around its value as bytes, those before the value and those after it.
+ * {@link #write(HapJsonWriter, Object[])} writes the accessory, service and characteristic objects around them and
+ * only the values themselves per request. The members of static characteristics include their value.
+ */
+public class AccessoryTemplate {
+    private static final Logger logger = LoggerFactory.getLogger(AccessoryTemplate.class);
+    private static final byte[] NONE = new byte[0];
+
+    private final int aid;
+    private final Service[] services;
+    private final Characteristic[] slots;
+
+    private AccessoryTemplate(int aid, Service[] services, Characteristic[] slots) {
+        this.aid = aid;
+        this.services = services;
+        this.slots = slots;
+    }
+
+    /**
+     * Instance ids are numbered the way {@link com.automaton.HomekitRegistry} numbers them.
+     */
+    public static AccessoryTemplate build(int aid, List<AbstractAccessoryService> services) {
+        List<Characteristic> slots = new ArrayList<>();
+        Service[] built = new Service[services.size()];
+        int iid = 0;
+        for (int s = 0; s < built.length; s++) {
+            AbstractAccessoryService service = services.get(s);
+            List<Characteristic> characteristics = service.getCharacteristics();
+            Service entry = new Service(++iid, service.getType(), characteristics.size());
+            for (int c = 0; c < characteristics.size(); c++) {
+                Characteristic characteristic = characteristics.get(c);
+                if (characteristic instanceof AbstractStaticCharacteristic) {
+                    entry.head[c] = members(characteristic.toJson(++iid).join(), null);
+                    entry.tail[c] = NONE;
+                    entry.slot[c] = -1;
+                } else {
+                    JsonObject described = characteristic.describe(++iid, JsonValue.NULL);
+                    entry.head[c] = members(described, true);
+                    entry.tail[c] = members(described, false);
+                    entry.slot[c] = slots.size();
+                    slots.add(characteristic);
+                }
+            }
+            built[s] = entry;
+        }
+        return new AccessoryTemplate(aid, built, slots.toArray(new Characteristic[slots.size()]));
+    }
+
+    /**
+     * Serializes the members before the value, after it, or all of them when {@code beforeValue} is null.
+     */
+    private static byte[] members(JsonObject object, Boolean beforeValue) {
+        JsonObjectBuilder members = Json.createObjectBuilder();
+        boolean before = true;
+        for (Map.Entry<String, JsonValue> member : object.entrySet()) {
+            if (beforeValue != null && member.getKey().equals("value")) {
+                before = false;
+            } else if (beforeValue == null || before == beforeValue) {
+                members.add(member.getKey(), member.getValue());
+            }
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        Json.createWriter(baos).write(members.build());
+        byte[] json = baos.toByteArray();
+        // Without the braces around them.
+        byte[] inner = new byte[json.length - 2];
+        System.arraycopy(json, 1, inner, 0, inner.length);
+        return inner;
+    }
+
+    /**
+     * Reads every value, giving a device that misses the read deadline its last known value. A slot without any
+     * value is null.
+     */
+    public CompletableFuture<Object[]> readValues() {
+        List<CompletableFuture<Object>> values = new ArrayList<>(this.slots.length);
+        for (Characteristic slot : this.slots)
+            values.add(read(slot));
+        return CompletableFuture.allOf(values.toArray(new CompletableFuture<?>[values.size()])).thenApply(v -> {
+            Object[] read = new Object[this.slots.length];
+            for (int i = 0; i < read.length; i++)
+                read[i] = values.get(i).join();
+            return read;
+        });
+    }
+
+    /**
+     * Writes the entry with {@code values} from {@link #readValues()} in its slots.
+     */
+    public void write(HapJsonWriter writer, Object[] values) {
+        writer.startObject().name("aid").value(this.aid).startArray("services");
+        for (Service service : this.services) {
+            writer.startObject().name("iid").value(service.iid).name("type").value(service.type);
+            writer.startArray("characteristics");
+            for (int c = 0; c < service.head.length; c++) {
+                writer.startObject().members(service.head[c]);
+                int slot = service.slot[c];
+                if (slot >= 0 && values[slot] != null)
+                    this.slots[slot].writeJson(writer, values[slot]);
+                writer.members(service.tail[c]).endObject();
+            }
+            writer.endArray().endObject();
+        }
+        writer.endArray().endObject();
+    }
+
+    private static CompletableFuture<Object> read(Characteristic slot) {
+        return DevicePool.within(slot.readValue(), CharacteristicsController.READ_TIMEOUT).handle((value, t) -> {
+            if (t == null)
+                return value;
+            Object cached = slot.getCachedValue();
+            if (cached == null)
+                logger.warn("No value for the listing of {}", slot, t);
+            return cached;
+        });
+    }
+
+    private static class Service {
+        private final int iid;
+        private final String type;
+        private final byte[][] head;
+        private final byte[][] tail;
+        // Index into the template's slots, -1 for a static characteristic.
+        private final int[] slot;
+
+        Service(int iid, String type, int characteristics) {
+            this.iid = iid;
+            this.type = type;
+            this.head = new byte[characteristics][];
+            this.tail = new byte[characteristics][];
+            this.slot = new int[characteristics];
+        }
+    }
+}
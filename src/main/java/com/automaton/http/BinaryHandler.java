@@ -1,69 +1,82 @@
 package com.automaton.http;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.util.List;
 
-import org.apache.commons.io.HexDump;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.ByteToMessageCodec;
+import io.netty.handler.codec.MessageToMessageEncoder;
 
-public class BinaryHandler extends ByteToMessageCodec<ByteBuf> {
+/**
+ * Encrypts responses once the controller has started talking encrypted, see {@link HapFrameDecoder} for the inbound
+ * side.
+ *
+ * Every frame is sealed straight into its own pooled buffer and the response goes out as a composite of those frames,
+ * so a large response is never copied whole.
+ */
+public class BinaryHandler extends MessageToMessageEncoder<ByteBuf> {
     private final static Logger logger = LoggerFactory.getLogger(BinaryHandler.class);
+    private static final int FRAME_OVERHEAD = 2 + HapFrameDecoder.TAG_LENGTH;
 
     private final HomekitConnection connection;
-    private boolean started = false;
+    // Plaintext of one frame when the response is not backed by a single array.
+    private final byte[] scratch = new byte[HapFrameDecoder.MAX_FRAME_LENGTH];
 
     public BinaryHandler(HomekitConnection connection) {
         this.connection = connection;
     }
 
     @Override
-    protected void encode(ChannelHandlerContext ctx, ByteBuf msg, ByteBuf out) throws Exception {
-        if (started) {
-            byte[] b = new byte[msg.readableBytes()];
-            msg.readBytes(b);
-            traceData("Sending data", b, ctx);
-            out.writeBytes(connection.encryptResponse(b));
-        } else {
-            out.writeBytes(msg);
+    protected void encode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
+        if (!connection.isEncrypting() || !msg.isReadable()) {
+            out.add(msg.retain());
+            return;
         }
+        traceData("Sending data", msg, ctx);
+        int frames = (msg.readableBytes() + HapFrameDecoder.MAX_FRAME_LENGTH - 1) / HapFrameDecoder.MAX_FRAME_LENGTH;
+        CompositeByteBuf sealed = ctx.alloc().compositeBuffer(frames);
+        try {
+            while (msg.isReadable()) {
+                int length = Math.min(msg.readableBytes(), HapFrameDecoder.MAX_FRAME_LENGTH);
+                sealed.addComponent(true, seal(ctx, msg, length));
+                msg.skipBytes(length);
+            }
+        } catch (Exception e) {
+            sealed.release();
+            throw e;
+        }
+        out.add(sealed);
     }
 
-    @Override
-    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
-        byte[] b = new byte[in.readableBytes()];
-        in.readBytes(b);
-        byte[] decrypted = connection.decryptRequest(b);
-        traceData("Received data", decrypted, ctx);
-        out.add(Unpooled.copiedBuffer(decrypted));
-        started = true;
-    }
-
-    @Override
-    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
-        boolean errorLevel = !(cause instanceof IOException);
-        if (errorLevel) {
-            logger.error("Exception in binary handler", cause);
+    private ByteBuf seal(ChannelHandlerContext ctx, ByteBuf msg, int length) throws IOException {
+        byte[] in = this.scratch;
+        int inOffset = 0;
+        if (msg.hasArray()) {
+            in = msg.array();
+            inOffset = msg.arrayOffset() + msg.readerIndex();
         } else {
-            logger.debug("Exception in binary handler", cause);
+            msg.getBytes(msg.readerIndex(), this.scratch, 0, length);
+        }
+        ByteBuf frame = ctx.alloc().heapBuffer(length + FRAME_OVERHEAD);
+        try {
+            connection.encryptFrame(in, inOffset, length, frame.array(), frame.arrayOffset() + frame.writerIndex());
+            frame.writerIndex(frame.writerIndex() + length + FRAME_OVERHEAD);
+            return frame;
+        } catch (IOException e) {
+            frame.release();
+            throw e;
         }
-        super.exceptionCaught(ctx, cause);
     }
 
-    private void traceData(String msg, byte[] b, ChannelHandlerContext ctx) throws Exception {
-        if (logger.isTraceEnabled() && b.length > 0) {
-            try (ByteArrayOutputStream stream = new ByteArrayOutputStream()) {
-                HexDump.dump(b, 0L, stream, 0);
-                stream.flush();
-                logger.trace(String.format("%s [%s]:%n%s%n", msg, ctx.channel().remoteAddress().toString(), stream.toString(StandardCharsets.UTF_8.name())));
-            }
+    static void traceData(String msg, ByteBuf b, ChannelHandlerContext ctx) {
+        if (logger.isTraceEnabled() && b.isReadable()) {
+            logger.trace(String.format("%s [%s]:%n%s%n", msg, ctx.channel().remoteAddress().toString(),
+                    ByteBufUtil.prettyHexDump(b)));
         }
     }
 }
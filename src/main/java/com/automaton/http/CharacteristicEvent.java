@@ -0,0 +1,85 @@
+package com.automaton.http;
+
+import com.automaton.characteristics.Characteristic;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * One published change, created once and handed to every subscribed connection. The EVENT message is encoded when
+ * the event is created and the read only buffer holding it is shared, every connection holding the event takes a
+ * reference with {@link #retain()} and gives it back with {@link #release()}.
+ */
+public class CharacteristicEvent {
+    private final int aid;
+    private final int iid;
+    private final Characteristic characteristic;
+    private final Object value;
+    private final ByteBuf frame;
+    private final int entryOffset;
+    private final int entryLength;
+
+    /**
+     * @param value as returned by {@link Characteristic#readValue()}.
+     */
+    public CharacteristicEvent(int aid, int iid, Characteristic characteristic, Object value) {
+        this.aid = aid;
+        this.iid = iid;
+        this.characteristic = characteristic;
+        this.value = value;
+        ByteBuf body = EventController.body(aid, iid, characteristic, value);
+        int bodyLength = body.readableBytes();
+        this.frame = EventController.frame(body).asReadOnly();
+        this.entryOffset = frame.readableBytes() - bodyLength + EventController.PREFIX.length;
+        this.entryLength = bodyLength - EventController.PREFIX.length - EventController.SUFFIX.length;
+    }
+
+    public int getAid() {
+        return aid;
+    }
+
+    public int getIid() {
+        return iid;
+    }
+
+    public Characteristic getCharacteristic() {
+        return characteristic;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    /**
+     * Identifies the characteristic, a later event with the same key supersedes this one.
+     */
+    public long getKey() {
+        return (long) aid << 32 | iid & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @return the whole EVENT message, to be released by whoever writes it.
+     */
+    public ByteBuf frame() {
+        return frame.retainedDuplicate();
+    }
+
+    /**
+     * @return just the {"aid":..,"iid":..,"value":..} object, to be released by whoever writes it.
+     */
+    ByteBuf entry() {
+        return frame.retainedSlice(entryOffset, entryLength);
+    }
+
+    int getEntryLength() {
+        return entryLength;
+    }
+
+    public CharacteristicEvent retain() {
+        frame.retain();
+        return this;
+    }
+
+    public boolean release() {
+        return frame.release();
+    }
+}
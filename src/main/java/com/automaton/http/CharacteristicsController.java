@@ -1,25 +1,38 @@
 package com.automaton.http;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
 
-import javax.json.*;
+import javax.json.JsonValue;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.automaton.HomekitRegistry;
 import com.automaton.characteristics.Characteristic;
+import com.automaton.characteristics.DevicePool;
 import com.automaton.characteristics.EventableCharacteristic;
 import com.automaton.http.HttpResponses.*;
+import com.automaton.server.AutomatonConfiguration;
 import com.automaton.server.SubscriptionManager;
-import com.automaton.utils.AutomatonUtils;
 
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.handler.codec.http.FullHttpRequest;
 
 public class CharacteristicsController {
     private static final Logger logger = LoggerFactory.getLogger(CharacteristicsController.class);
+    static final long READ_TIMEOUT = AutomatonConfiguration.getLong("characteristics.read.timeout_ms", 5000);
+    static final long WRITE_TIMEOUT = AutomatonConfiguration.getLong("characteristics.write.timeout_ms", 10000);
+    // HAP status codes, "unable to communicate with requested service" and so on.
+    static final int STATUS_UNREACHABLE = -70402;
+    static final int STATUS_BUSY = -70403;
+    static final int STATUS_TIMED_OUT = -70408;
+    static final int STATUS_NOT_FOUND = -70409;
+    static final int STATUS_INVALID_VALUE = -70410;
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
 
     private final HomekitRegistry registry;
     private final SubscriptionManager subscriptions;
@@ -29,28 +42,37 @@ public class CharacteristicsController {
         this.subscriptions = subscriptions;
     }
 
-    public HttpResponse get(FullHttpRequest request) throws Exception {
+    /**
+     * Reads every requested characteristic concurrently. A device that has not answered within
+     * "characteristics.read.timeout_ms" is reported with its last known value, so one slow device cannot hold up the
+     * rest; without one it gets -70408, operation timed out. Any other failed read is reported with its own status.
+     * A response with any status is a 207.
+     */
+    public CompletableFuture<HttpResponse> get(FullHttpRequest request) {
         String uri = request.getUri();
         // Characteristics are requested with /characteristics?id=1.1,2.1,3.1
         String query = uri.substring("/characteristics?id=".length());
         String[] ids = query.split(",");
-        JsonArrayBuilder characteristics = Json.createArrayBuilder();
+        List<CompletableFuture<Object>> reads = new ArrayList<>(ids.length);
+        List<Characteristic> targets = new ArrayList<>(ids.length);
+        int[] aids = new int[ids.length];
+        int[] iids = new int[ids.length];
         for (String id : ids) {
             String[] parts = id.split("\\.");
             if (parts.length != 2) {
                 logger.error("Unexpected characteristics request: " + uri);
-                return new NotFoundResponse();
+                return CompletableFuture.completedFuture(new NotFoundResponse());
             }
             int aid = Integer.parseInt(parts[0]);
             int iid = Integer.parseInt(parts[1]);
-            JsonObjectBuilder characteristic = Json.createObjectBuilder();
             Map<Integer, Characteristic> characteristicMap = registry.getCharacteristics(aid);
             if (!characteristicMap.isEmpty()) {
                 Characteristic targetCharacteristic = characteristicMap.get(iid);
                 if (targetCharacteristic != null) {
-                    targetCharacteristic.supplyValue(characteristic);
-
-                    characteristics.add(characteristic.add("aid", aid).add("iid", iid).build());
+                    aids[reads.size()] = aid;
+                    iids[reads.size()] = iid;
+                    targets.add(targetCharacteristic);
+                    reads.add(read(aid, iid, targetCharacteristic));
                 } else {
                     logger.warn("Accessory " + aid + " does not have characteristic " + iid + "Request: " + uri);
                 }
@@ -58,34 +80,139 @@ public class CharacteristicsController {
                 logger.warn("Accessory " + aid + " has no characteristics or does not exist. Request: " + uri);
             }
         }
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            Json.createWriter(baos).write(Json.createObjectBuilder().add("characteristics", characteristics.build()).build());
-            return new HapJsonResponse(baos.toByteArray());
+        return CompletableFuture.allOf(reads.toArray(new CompletableFuture<?>[reads.size()])).thenApply(v -> {
+            boolean partial = reads.stream().anyMatch(read -> read.join() instanceof Failure);
+            HapJsonWriter writer = new HapJsonWriter(ByteBufAllocator.DEFAULT.heapBuffer());
+            try {
+                writer.startObject().startArray("characteristics");
+                for (int i = 0; i < reads.size(); i++) {
+                    Object value = reads.get(i).join();
+                    writer.startObject();
+                    if (!(value instanceof Failure))
+                        targets.get(i).writeJson(writer, value);
+                    writer.name("aid").value(aids[i]).name("iid").value(iids[i]);
+                    if (value instanceof Failure)
+                        writer.name("status").value(((Failure) value).status);
+                    else if (partial)
+                        writer.name("status").value(0);
+                    writer.endObject();
+                }
+                writer.endArray().endObject();
+            } catch (RuntimeException e) {
+                writer.buffer().release();
+                throw e;
+            }
+            return partial ? new HapJsonMultiStatusResponse(writer.buffer()) : new HapJsonResponse(writer.buffer());
+        });
+    }
+
+    private CompletableFuture<Object> read(int aid, int iid, Characteristic characteristic) {
+        return DevicePool.within(characteristic.readValue(), READ_TIMEOUT).handle((value, t) -> {
+            if (t == null)
+                return value;
+            int status = status(t);
+            Object cached = characteristic.getCachedValue();
+            if (status == STATUS_TIMED_OUT && cached != null) {
+                logger.warn("Accessory {} characteristic {} did not answer, using its last value", aid, iid);
+                return cached;
+            }
+            logger.warn("Accessory {} characteristic {} could not be read", aid, iid, t);
+            return new Failure(status);
+        });
+    }
+
+    /**
+     * Subscriptions are applied right away. Value writes go to the {@link DevicePool} as they are parsed, in order
+     * for any one accessory and concurrently across accessories. The response waits for every write to finish or
+     * pass "characteristics.write.timeout_ms"; if any did not succeed it is a 207 with a status per characteristic.
+     */
+    public CompletableFuture<HttpResponse> put(FullHttpRequest request, HomekitConnection connection)
+            throws Exception {
+        Put put = new Put(connection);
+        CharacteristicsPutParser.parse(request.content(), put);
+        return CompletableFuture.allOf(put.statuses.toArray(new CompletableFuture<?>[put.statuses.size()]))
+                .thenApply(v -> put.response());
+    }
+
+    static int status(Throwable t) {
+        Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+        if (cause instanceof TimeoutException)
+            return STATUS_TIMED_OUT;
+        if (cause instanceof IllegalArgumentException)
+            return STATUS_INVALID_VALUE;
+        if (cause instanceof RejectedExecutionException)
+            return STATUS_BUSY;
+        return STATUS_UNREACHABLE;
+    }
+
+    /**
+     * Stands in for the value of a characteristic that could not be read.
+     */
+    private static class Failure {
+        private final int status;
+
+        Failure(int status) {
+            this.status = status;
         }
     }
 
-    public HttpResponse put(FullHttpRequest request, HomekitConnection connection) throws Exception {
-        try (ByteArrayInputStream bais = new ByteArrayInputStream(AutomatonUtils.readAllRemaining(request.content()))) {
-            JsonArray jsonCharacteristics = Json.createReader(bais).readObject().getJsonArray("characteristics");
-            for (JsonValue value : jsonCharacteristics) {
-                JsonObject jsonCharacteristic = (JsonObject) value;
-                int aid = jsonCharacteristic.getInt("aid");
-                int iid = jsonCharacteristic.getInt("iid");
-                Characteristic characteristic = registry.getCharacteristics(aid).get(iid);
-
-                if (jsonCharacteristic.containsKey("value")) {
-                    characteristic.setValue(jsonCharacteristic.get("value"));
-                }
-                if (jsonCharacteristic.containsKey("ev") && characteristic instanceof EventableCharacteristic) {
-                    if (jsonCharacteristic.getBoolean("ev")) {
-                        subscriptions.addSubscription(aid, iid, (EventableCharacteristic) characteristic, connection);
-                        continue;
-                    }
-                    subscriptions.removeSubscription((EventableCharacteristic) characteristic, connection);
-                }
+    /**
+     * Applies each entry as soon as the parser has read it.
+     */
+    private class Put implements CharacteristicsPutParser.Listener {
+        private final HomekitConnection connection;
+        // The last write queued for each accessory, the next one for it starts once that has finished.
+        private final Map<Integer, CompletableFuture<Void>> tails = new HashMap<>();
+        private final List<Integer> aids = new ArrayList<>();
+        private final List<Integer> iids = new ArrayList<>();
+        private final List<CompletableFuture<Integer>> statuses = new ArrayList<>();
+
+        Put(HomekitConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void entry(int aid, int iid, JsonValue value, Boolean ev) {
+            aids.add(aid);
+            iids.add(iid);
+            Characteristic characteristic = registry.getCharacteristics(aid).get(iid);
+            if (characteristic == null) {
+                logger.warn("Accessory " + aid + " does not have characteristic " + iid);
+                statuses.add(CompletableFuture.completedFuture(STATUS_NOT_FOUND));
+                return;
+            }
+            if (value != null) {
+                CompletableFuture<Void> write = tails.getOrDefault(aid, DONE).handle((v, t) -> (Void) null)
+                        .thenCompose(v -> characteristic.writeValue(value));
+                tails.put(aid, write);
+                statuses.add(DevicePool.within(write, WRITE_TIMEOUT).handle((v, t) -> {
+                    if (t == null)
+                        return 0;
+                    logger.warn("Could not write {} to accessory {} characteristic {}", value, aid, iid, t);
+                    return status(t);
+                }));
+            } else {
+                statuses.add(CompletableFuture.completedFuture(0));
+            }
+            if (ev != null && characteristic instanceof EventableCharacteristic) {
+                if (ev)
+                    subscriptions.addSubscription(aid, iid, (EventableCharacteristic) characteristic, connection);
+                else
+                    subscriptions.removeSubscription(aid, iid, connection);
             }
         }
 
-        return new HapJsonNoContentResponse();
+        HttpResponse response() {
+            if (statuses.stream().allMatch(status -> status.join() == 0))
+                return new HapJsonNoContentResponse();
+            HapJsonWriter writer = new HapJsonWriter(ByteBufAllocator.DEFAULT.heapBuffer());
+            writer.startObject().startArray("characteristics");
+            for (int i = 0; i < statuses.size(); i++) {
+                writer.startObject().name("aid").value(aids.get(i)).name("iid").value(iids.get(i));
+                writer.name("status").value(statuses.get(i).join()).endObject();
+            }
+            writer.endArray().endObject();
+            return new HapJsonMultiStatusResponse(writer.buffer());
+        }
     }
 }
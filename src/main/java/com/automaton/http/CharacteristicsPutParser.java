@@ -0,0 +1,477 @@
+package com.automaton.http;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+import javax.json.*;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Pull parser for PUT /characteristics bodies, {"characteristics":[{"aid":1,"iid":9,"value":true,"ev":false}]}.
+ *
+ * Reads straight from the request buffer and hands every entry to the listener as soon as its closing brace has been
+ * read, no document is built. Members it does not know are skipped; a body of any other shape fails with a
+ * {@link JsonException}.
+ */
+public class CharacteristicsPutParser {
+    public interface Listener {
+        /**
+         * @param value the value to write, null if the entry has none.
+         * @param ev whether to subscribe to events, null if the entry leaves the subscription alone.
+         */
+        void entry(int aid, int iid, JsonValue value, Boolean ev) throws Exception;
+    }
+
+    private static final int CHARACTERISTICS = 0;
+    private static final int AID = 1;
+    private static final int IID = 2;
+    private static final int VALUE = 3;
+    private static final int EV = 4;
+    private static final String[] NAMES = { "characteristics", "aid", "iid", "value", "ev" };
+    private static final byte[][] NAME_BYTES = new byte[NAMES.length][];
+    static {
+        for (int i = 0; i < NAMES.length; i++)
+            NAME_BYTES[i] = NAMES[i].getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private final ByteBuf in;
+    private final int end;
+    private int position;
+
+    private CharacteristicsPutParser(ByteBuf in) {
+        this.in = in;
+        this.position = in.readerIndex();
+        this.end = in.writerIndex();
+    }
+
+    /**
+     * Parses the readable bytes of {@code in} without moving its reader index.
+     */
+    public static void parse(ByteBuf in, Listener listener) throws Exception {
+        new CharacteristicsPutParser(in).body(listener);
+    }
+
+    private void body(Listener listener) throws Exception {
+        boolean found = false;
+        expect('{');
+        if (!consume('}')) {
+            do {
+                if (member() == CHARACTERISTICS) {
+                    found = true;
+                    characteristics(listener);
+                } else {
+                    skip();
+                }
+            } while (consume(','));
+            expect('}');
+        }
+        skipWhitespace();
+        if (this.position != this.end)
+            throw error("Unexpected content after the body");
+        if (!found)
+            throw error("No characteristics");
+    }
+
+    private void characteristics(Listener listener) throws Exception {
+        expect('[');
+        if (consume(']'))
+            return;
+        do {
+            entry(listener);
+        } while (consume(','));
+        expect(']');
+    }
+
+    private void entry(Listener listener) throws Exception {
+        int aid = -1;
+        int iid = -1;
+        JsonValue value = null;
+        Boolean ev = null;
+        expect('{');
+        if (!consume('}')) {
+            do {
+                switch (member()) {
+                case AID:
+                    aid = integer();
+                    break;
+                case IID:
+                    iid = integer();
+                    break;
+                case VALUE:
+                    value = value();
+                    break;
+                case EV:
+                    ev = bool();
+                    break;
+                default:
+                    skip();
+                }
+            } while (consume(','));
+            expect('}');
+        }
+        if (aid < 0 || iid < 0)
+            throw error("Characteristic without aid and iid");
+        listener.entry(aid, iid, value, ev);
+    }
+
+    /**
+     * Reads a member name and its colon.
+     *
+     * @return the index of the name in {@link #NAMES}, -1 for any other name.
+     */
+    private int member() {
+        skipWhitespace();
+        int start = this.position + 1;
+        int name = -1;
+        int quote = peek() == '"' ? this.in.indexOf(start, this.end, (byte) '"') : -1;
+        if (quote >= 0 && this.in.indexOf(start, quote, (byte) '\\') < 0) {
+            for (int i = 0; i < NAME_BYTES.length && name < 0; i++) {
+                if (matches(start, quote, NAME_BYTES[i]))
+                    name = i;
+            }
+            this.position = quote + 1;
+        } else {
+            String decoded = string();
+            for (int i = 0; i < NAMES.length && name < 0; i++) {
+                if (NAMES[i].equals(decoded))
+                    name = i;
+            }
+        }
+        expect(':');
+        return name;
+    }
+
+    private boolean matches(int start, int quote, byte[] name) {
+        if (quote - start != name.length)
+            return false;
+        for (int i = 0; i < name.length; i++) {
+            if (this.in.getByte(start + i) != name[i])
+                return false;
+        }
+        return true;
+    }
+
+    private JsonValue value() {
+        skipWhitespace();
+        switch (peek()) {
+        case '"':
+            return new Text(string());
+        case 't':
+        case 'f':
+            return bool() ? JsonValue.TRUE : JsonValue.FALSE;
+        case 'n':
+            literal("null");
+            return JsonValue.NULL;
+        default:
+            return number();
+        }
+    }
+
+    private boolean bool() {
+        skipWhitespace();
+        if (peek() == 't') {
+            literal("true");
+            return true;
+        }
+        literal("false");
+        return false;
+    }
+
+    private int integer() {
+        skipWhitespace();
+        int start = this.position;
+        long value = 0;
+        while (this.position < this.end && isDigit(this.in.getByte(this.position))) {
+            value = value * 10 + this.in.getByte(this.position++) - '0';
+            if (value > Integer.MAX_VALUE)
+                throw error("Id out of range");
+        }
+        if (this.position == start)
+            throw error("Expected an id");
+        return (int) value;
+    }
+
+    private JsonNumber number() {
+        int start = this.position;
+        boolean negative = consumeByte('-');
+        int digits = this.position;
+        long integral = 0;
+        while (this.position < this.end && isDigit(this.in.getByte(this.position)))
+            integral = integral * 10 + this.in.getByte(this.position++) - '0';
+        if (this.position == digits)
+            throw error("Expected a value");
+        boolean plain = this.position - digits <= 18;
+        while (this.position < this.end && isNumberPart(this.in.getByte(this.position))) {
+            this.position++;
+            plain = false;
+        }
+        if (plain)
+            return new Number(negative ? -integral : integral, null);
+        try {
+            return new Number(0, new BigDecimal(this.in.toString(start, this.position - start,
+                    StandardCharsets.US_ASCII)));
+        } catch (NumberFormatException e) {
+            throw error("Malformed number");
+        }
+    }
+
+    private String string() {
+        expect('"');
+        StringBuilder decoded = null;
+        int start = this.position;
+        while (true) {
+            byte b = next();
+            if (b == '"')
+                break;
+            if (b == '\\') {
+                if (decoded == null)
+                    decoded = new StringBuilder();
+                decoded.append(this.in.toString(start, this.position - 1 - start, StandardCharsets.UTF_8));
+                decoded.append(escape());
+                start = this.position;
+            } else if (b >= 0 && b < 0x20) {
+                throw error("Control character in string");
+            }
+        }
+        String tail = this.in.toString(start, this.position - 1 - start, StandardCharsets.UTF_8);
+        return decoded == null ? tail : decoded.append(tail).toString();
+    }
+
+    private char escape() {
+        byte b = next();
+        switch (b) {
+        case '"':
+        case '\\':
+        case '/':
+            return (char) b;
+        case 'b':
+            return '\b';
+        case 'f':
+            return '\f';
+        case 'n':
+            return '\n';
+        case 'r':
+            return '\r';
+        case 't':
+            return '\t';
+        case 'u':
+            int c = 0;
+            for (int i = 0; i < 4; i++) {
+                int digit = Character.digit(next(), 16);
+                if (digit < 0)
+                    throw error("Malformed unicode escape");
+                c = c << 4 | digit;
+            }
+            return (char) c;
+        default:
+            throw error("Malformed escape");
+        }
+    }
+
+    /**
+     * Steps over a value of any type.
+     */
+    private void skip() {
+        skipWhitespace();
+        switch (peek()) {
+        case '{':
+            expect('{');
+            if (consume('}'))
+                return;
+            do {
+                member();
+                skip();
+            } while (consume(','));
+            expect('}');
+            return;
+        case '[':
+            expect('[');
+            if (consume(']'))
+                return;
+            do {
+                skip();
+            } while (consume(','));
+            expect(']');
+            return;
+        default:
+            value();
+        }
+    }
+
+    private void literal(String literal) {
+        for (int i = 0; i < literal.length(); i++) {
+            if (next() != literal.charAt(i))
+                throw error("Expected " + literal);
+        }
+    }
+
+    private void expect(char c) {
+        skipWhitespace();
+        if (!consumeByte(c))
+            throw error("Expected '" + c + "'");
+    }
+
+    private boolean consume(char c) {
+        skipWhitespace();
+        return consumeByte(c);
+    }
+
+    private boolean consumeByte(char c) {
+        if (this.position < this.end && this.in.getByte(this.position) == c) {
+            this.position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipWhitespace() {
+        while (this.position < this.end) {
+            byte b = this.in.getByte(this.position);
+            if (b != ' ' && b != '\t' && b != '\n' && b != '\r')
+                return;
+            this.position++;
+        }
+    }
+
+    private byte peek() {
+        if (this.position == this.end)
+            throw error("Unexpected end of body");
+        return this.in.getByte(this.position);
+    }
+
+    private byte next() {
+        byte b = peek();
+        this.position++;
+        return b;
+    }
+
+    private JsonException error(String message) {
+        return new JsonException(message + " at offset " + (this.position - this.in.readerIndex()));
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean isNumberPart(byte b) {
+        return isDigit(b) || b == '.' || b == 'e' || b == 'E' || b == '+' || b == '-';
+    }
+
+    /**
+     * A number that fits a long is kept as one, anything else as a {@link BigDecimal}.
+     */
+    private static final class Number implements JsonNumber {
+        private final long integral;
+        private final BigDecimal decimal;
+
+        Number(long integral, BigDecimal decimal) {
+            this.integral = integral;
+            this.decimal = decimal;
+        }
+
+        @Override
+        public ValueType getValueType() {
+            return ValueType.NUMBER;
+        }
+
+        @Override
+        public boolean isIntegral() {
+            return this.decimal == null || this.decimal.scale() == 0;
+        }
+
+        @Override
+        public int intValue() {
+            return this.decimal == null ? (int) this.integral : this.decimal.intValue();
+        }
+
+        @Override
+        public int intValueExact() {
+            return this.decimal == null ? Math.toIntExact(this.integral) : this.decimal.intValueExact();
+        }
+
+        @Override
+        public long longValue() {
+            return this.decimal == null ? this.integral : this.decimal.longValue();
+        }
+
+        @Override
+        public long longValueExact() {
+            return this.decimal == null ? this.integral : this.decimal.longValueExact();
+        }
+
+        @Override
+        public BigInteger bigIntegerValue() {
+            return bigDecimalValue().toBigInteger();
+        }
+
+        @Override
+        public BigInteger bigIntegerValueExact() {
+            return bigDecimalValue().toBigIntegerExact();
+        }
+
+        @Override
+        public double doubleValue() {
+            return this.decimal == null ? this.integral : this.decimal.doubleValue();
+        }
+
+        @Override
+        public BigDecimal bigDecimalValue() {
+            return this.decimal == null ? BigDecimal.valueOf(this.integral) : this.decimal;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof JsonNumber && bigDecimalValue().equals(((JsonNumber) obj).bigDecimalValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return bigDecimalValue().hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return this.decimal == null ? Long.toString(this.integral) : this.decimal.toString();
+        }
+    }
+
+    private static final class Text implements JsonString {
+        private final String value;
+
+        Text(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public ValueType getValueType() {
+            return ValueType.STRING;
+        }
+
+        @Override
+        public String getString() {
+            return this.value;
+        }
+
+        @Override
+        public CharSequence getChars() {
+            return this.value;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof JsonString && this.value.equals(((JsonString) obj).getString());
+        }
+
+        @Override
+        public int hashCode() {
+            return this.value.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "\"" + this.value + "\"";
+        }
+    }
+}
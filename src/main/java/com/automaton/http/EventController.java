@@ -1,27 +1,83 @@
 package com.automaton.http;
 
-import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
 
-import javax.json.*;
+import com.automaton.characteristics.Characteristic;
 
-import com.automaton.characteristics.EventableCharacteristic;
-import com.automaton.http.HttpResponses.EventResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
 
+/**
+ * Encodes EVENT/1.0 messages to exactly the bytes {@link NettyHttpServer.AggregateResponseEncoder} would write for an
+ * {@link HttpResponses.EventResponse}, so they can be written past it.
+ */
 public class EventController {
+    private static final String HEAD = "EVENT/1.0 200 OK\r\nContent-type: application/hap+json\r\nContent-Length: ";
+    private static final String TAIL = "\r\nConnection: keep-alive\r\n\r\n";
+    static final byte[] PREFIX = "{\"characteristics\":[".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] SUFFIX = "]}".getBytes(StandardCharsets.US_ASCII);
+    private static final ByteBuf SHARED_PREFIX = shared(PREFIX);
+    private static final ByteBuf SHARED_SUFFIX = shared(SUFFIX);
+    private static final ByteBuf SEPARATOR = shared(new byte[] { ',' });
 
-    public HttpResponse getMessage(int accessoryId, int iid, EventableCharacteristic changed) throws Exception {
-        JsonArrayBuilder characteristics = Json.createArrayBuilder();
+    /**
+     * @return the body of the message for one change.
+     */
+    static ByteBuf body(int aid, int iid, Characteristic characteristic, Object value) {
+        ByteBuf body = ByteBufAllocator.DEFAULT.heapBuffer();
+        try {
+            HapJsonWriter writer = new HapJsonWriter(body).startObject().startArray("characteristics").startObject();
+            writer.name("aid").value(aid).name("iid").value(iid);
+            characteristic.writeJson(writer, value);
+            writer.endObject().endArray().endObject();
+            return body;
+        } catch (RuntimeException e) {
+            body.release();
+            throw e;
+        }
+    }
 
-        JsonObjectBuilder characteristicBuilder = Json.createObjectBuilder();
-        characteristicBuilder.add("aid", accessoryId);
-        characteristicBuilder.add("iid", iid);
-        changed.supplyValue(characteristicBuilder);
-        characteristics.add(characteristicBuilder.build());
+    /**
+     * @return the whole message around {@code body}, which is released.
+     */
+    static ByteBuf frame(ByteBuf body) {
+        try {
+            String head = HEAD + body.readableBytes() + TAIL;
+            ByteBuf frame = ByteBufAllocator.DEFAULT.heapBuffer(head.length() + body.readableBytes());
+            frame.writeCharSequence(head, StandardCharsets.US_ASCII);
+            return frame.writeBytes(body);
+        } finally {
+            body.release();
+        }
+    }
 
-        JsonObject data = Json.createObjectBuilder().add("characteristics", characteristics).build();
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            Json.createWriter(baos).write(data);
-            return new EventResponse(baos.toByteArray());
+    /**
+     * Joins the entries of several changes into one message. The entries are shared with the events rather than
+     * copied, only the head is written per message.
+     */
+    static ByteBuf batch(ByteBufAllocator alloc, Collection<CharacteristicEvent> events) {
+        int length = PREFIX.length + SUFFIX.length + events.size() - 1;
+        for (CharacteristicEvent event : events)
+            length += event.getEntryLength();
+        byte[] head = (HEAD + length + TAIL).getBytes(StandardCharsets.US_ASCII);
+        CompositeByteBuf message = alloc.compositeBuffer(events.size() * 2 + 2);
+        message.addComponent(true, alloc.heapBuffer(head.length).writeBytes(head));
+        message.addComponent(true, SHARED_PREFIX.duplicate());
+        boolean first = true;
+        for (CharacteristicEvent event : events) {
+            if (!first)
+                message.addComponent(true, SEPARATOR.duplicate());
+            message.addComponent(true, event.entry());
+            first = false;
         }
+        message.addComponent(true, SHARED_SUFFIX.duplicate());
+        return message;
+    }
+
+    private static ByteBuf shared(byte[] bytes) {
+        return Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(bytes).asReadOnly());
     }
 }
@@ -0,0 +1,175 @@
+package com.automaton.http;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.automaton.server.AutomatonConfiguration;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.concurrent.ScheduledFuture;
+
+/**
+ * A connection's outgoing events. Changes are collected for "events.coalesce.window_ms" and go out as one EVENT
+ * message, a newer value for a characteristic replacing the one still waiting. Nothing is written while the channel
+ * is not writable, so Netty's outbound buffer never holds more than one batch of events; the batch keeps collecting
+ * and goes out once the channel drains.
+ *
+ * At most "events.queue.max" characteristics wait at a time. A burst of more goes out right away; a controller that
+ * is not reading at the time, or leaves the channel unwritable for "events.stall.timeout_ms" while events wait, is
+ * disconnected instead. No change is ever dropped silently, a disconnected controller reconnects and reads the current
+ * state.
+ *
+ * Events may be offered from any thread, the queue itself is only touched from the handler's executor. The queue
+ * holds a reference to each event it keeps and writes the shared, already encoded message past the HTTP encoder, so
+ * only the session encryption is done per connection.
+ */
+public class EventQueue {
+    private static final Logger logger = LoggerFactory.getLogger(EventQueue.class);
+    static final long WINDOW = AutomatonConfiguration.getLong("events.coalesce.window_ms", 250);
+    static final int MAX_PENDING = AutomatonConfiguration.getInt("events.queue.max", 128);
+    static final long STALL_TIMEOUT = AutomatonConfiguration.getLong("events.stall.timeout_ms", 30000);
+
+    private static final LongAdder sent = new LongAdder();
+    private static final LongAdder merged = new LongAdder();
+    private static final LongAdder disconnected = new LongAdder();
+
+    private final ChannelHandlerContext ctx;
+    private final Map<Long, CharacteristicEvent> pending = new LinkedHashMap<>();
+    private ScheduledFuture<?> flush;
+    private ScheduledFuture<?> stall;
+    private boolean closed;
+
+    EventQueue(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    public void offer(CharacteristicEvent event) {
+        event.retain();
+        if (ctx.executor().inEventLoop())
+            add(event);
+        else
+            ctx.executor().execute(() -> add(event));
+    }
+
+    private void add(CharacteristicEvent event) {
+        if (closed) {
+            event.release();
+            return;
+        }
+        CharacteristicEvent replaced = pending.put(event.getKey(), event);
+        if (replaced != null) {
+            replaced.release();
+            merged.increment();
+        } else if (pending.size() > MAX_PENDING) {
+            if (!ctx.channel().isWritable()) {
+                logger.warn("Disconnecting {}, more than {} characteristics are waiting for it",
+                        ctx.channel().remoteAddress(), MAX_PENDING);
+                disconnect();
+                return;
+            }
+            if (flush != null)
+                flush.cancel(false);
+            flush();
+            return;
+        }
+        if (!ctx.channel().isWritable()) {
+            // Flushed from writabilityChanged instead.
+            watchStall();
+        } else if (flush == null) {
+            flush = ctx.executor().schedule(this::flush, WINDOW, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        flush = null;
+        if (pending.isEmpty())
+            return;
+        if (!ctx.channel().isWritable()) {
+            watchStall();
+            return;
+        }
+        ByteBuf message = pending.size() == 1 ? pending.values().iterator().next().frame()
+                : EventController.batch(ctx.alloc(), pending.values());
+        release();
+        sent.increment();
+        // The message is already encoded, it goes straight to the session encryption if there is one.
+        ChannelHandlerContext http = ctx.pipeline().context(NettyHttpServer.HTTP_HANDLER_NAME);
+        (http != null ? http : ctx).writeAndFlush(message);
+    }
+
+    private void release() {
+        for (CharacteristicEvent event : pending.values())
+            event.release();
+        pending.clear();
+    }
+
+    void writabilityChanged() {
+        if (closed || !ctx.channel().isWritable())
+            return;
+        if (stall != null) {
+            stall.cancel(false);
+            stall = null;
+        }
+        if (flush == null)
+            flush();
+    }
+
+    private void watchStall() {
+        if (stall != null)
+            return;
+        stall = ctx.executor().schedule(() -> {
+            stall = null;
+            if (closed || ctx.channel().isWritable())
+                return;
+            logger.warn("Disconnecting {}, it has not read its events for {}ms", ctx.channel().remoteAddress(),
+                    STALL_TIMEOUT);
+            disconnect();
+        }, STALL_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    private void disconnect() {
+        disconnected.increment();
+        close();
+        ctx.close();
+    }
+
+    void close() {
+        closed = true;
+        if (flush != null)
+            flush.cancel(false);
+        if (stall != null)
+            stall.cancel(false);
+        release();
+    }
+
+    public static Stats stats() {
+        return new Stats(sent.sum(), merged.sum(), disconnected.sum());
+    }
+
+    /**
+     * Counters across all connections: EVENT messages sent, events replaced by a newer value before they went out
+     * and controllers disconnected for not reading.
+     */
+    public static class Stats {
+        public final long sent;
+        public final long merged;
+        public final long disconnected;
+
+        Stats(long sent, long merged, long disconnected) {
+            this.sent = sent;
+            this.merged = merged;
+            this.disconnected = disconnected;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("sent=%d merged=%d disconnected=%d", this.sent, this.merged, this.disconnected);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.automaton.http;
+
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+
+/**
+ * Splits the encrypted stream of an upgraded connection into [short length][ciphertext][16 byte tag] frames.
+ *
+ * Each frame is copied once, into a pooled heap buffer, and verified and decrypted in place there. The plaintext is
+ * passed on as that buffer, so the HTTP decoder reads the decrypted bytes without any further copy.
+ */
+class HapFrameDecoder extends ByteToMessageDecoder {
+    static final int TAG_LENGTH = 16;
+    static final int MAX_FRAME_LENGTH = 1024;
+
+    private final HomekitConnection connection;
+    private final byte[] additionalData = new byte[2];
+
+    HapFrameDecoder(HomekitConnection connection) {
+        this.connection = connection;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        while (in.readableBytes() >= 2) {
+            int length = in.getUnsignedShortLE(in.readerIndex());
+            if (length > MAX_FRAME_LENGTH)
+                throw new CorruptedFrameException("Frame of " + length + " bytes exceeds " + MAX_FRAME_LENGTH);
+            if (in.readableBytes() < 2 + length + TAG_LENGTH)
+                return;
+
+            in.readBytes(this.additionalData);
+            ByteBuf frame = ctx.alloc().heapBuffer(length + TAG_LENGTH);
+            try {
+                in.readBytes(frame, length + TAG_LENGTH);
+                this.connection.decryptFrame(frame.array(), frame.arrayOffset() + frame.readerIndex(), length,
+                        this.additionalData);
+                frame.writerIndex(frame.readerIndex() + length);
+            } catch (Exception e) {
+                frame.release();
+                throw e;
+            }
+            BinaryHandler.traceData("Received data", frame, ctx);
+            out.add(frame);
+        }
+    }
+}
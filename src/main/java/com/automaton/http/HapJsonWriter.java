@@ -0,0 +1,203 @@
+package com.automaton.http;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Writes HAP JSON straight into a {@link ByteBuf}, byte for byte what the javax.json writer produces for the same
+ * object tree: no whitespace, members in the order they are written and doubles in their {@link BigDecimal} form.
+ *
+ * Not thread safe, one writer per response.
+ */
+public class HapJsonWriter {
+    private static final int MAX_DEPTH = 64;
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final ByteBuf out;
+    private final byte[] digits = new byte[20];
+    // Bit n is set once the container at depth n has a member.
+    private long hasMembers;
+    private int depth;
+    private boolean afterName;
+
+    public HapJsonWriter(ByteBuf out) {
+        this.out = out;
+    }
+
+    public ByteBuf buffer() {
+        return this.out;
+    }
+
+    public HapJsonWriter startObject() {
+        return open('{');
+    }
+
+    public HapJsonWriter startArray() {
+        return open('[');
+    }
+
+    public HapJsonWriter startArray(String name) {
+        return name(name).open('[');
+    }
+
+    public HapJsonWriter endObject() {
+        return close('}');
+    }
+
+    public HapJsonWriter endArray() {
+        return close(']');
+    }
+
+    public HapJsonWriter name(String name) {
+        separator();
+        string(name);
+        this.out.writeByte(':');
+        this.afterName = true;
+        return this;
+    }
+
+    public HapJsonWriter value(boolean value) {
+        separator();
+        this.out.writeBytes(value ? TRUE : FALSE);
+        return this;
+    }
+
+    public HapJsonWriter value(int value) {
+        return value((long) value);
+    }
+
+    public HapJsonWriter value(long value) {
+        separator();
+        if (value == Long.MIN_VALUE) {
+            this.out.writeBytes(MIN_LONG);
+            return this;
+        }
+        if (value < 0) {
+            this.out.writeByte('-');
+            value = -value;
+        }
+        int start = this.digits.length;
+        do {
+            this.digits[--start] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        this.out.writeBytes(this.digits, start, this.digits.length - start);
+        return this;
+    }
+
+    public HapJsonWriter value(double value) {
+        return value(BigDecimal.valueOf(value));
+    }
+
+    public HapJsonWriter value(BigDecimal value) {
+        separator();
+        this.out.writeCharSequence(value.toString(), StandardCharsets.US_ASCII);
+        return this;
+    }
+
+    public HapJsonWriter value(BigInteger value) {
+        separator();
+        this.out.writeCharSequence(value.toString(), StandardCharsets.US_ASCII);
+        return this;
+    }
+
+    public HapJsonWriter value(String value) {
+        separator();
+        string(value);
+        return this;
+    }
+
+    /**
+     * Writes already serialized members of the current object, {@code "a":1,"b":2}, preceded by a separator if the
+     * object has members already. Empty bytes write nothing.
+     */
+    public HapJsonWriter members(byte[] json) {
+        if (json.length > 0) {
+            separator();
+            this.out.writeBytes(json);
+        }
+        return this;
+    }
+
+    private HapJsonWriter open(char bracket) {
+        separator();
+        if (++this.depth >= MAX_DEPTH)
+            throw new IllegalStateException("JSON nested deeper than " + MAX_DEPTH);
+        this.hasMembers &= ~(1L << this.depth);
+        this.out.writeByte(bracket);
+        return this;
+    }
+
+    private HapJsonWriter close(char bracket) {
+        this.depth--;
+        this.out.writeByte(bracket);
+        return this;
+    }
+
+    private void separator() {
+        if (this.afterName) {
+            this.afterName = false;
+            return;
+        }
+        long bit = 1L << this.depth;
+        if ((this.hasMembers & bit) != 0)
+            this.out.writeByte(',');
+        this.hasMembers |= bit;
+    }
+
+    private void string(String value) {
+        this.out.writeByte('"');
+        int length = value.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\')
+                continue;
+            plain(value, start, i);
+            start = i + 1;
+            this.out.writeByte('\\');
+            switch (c) {
+            case '"':
+            case '\\':
+                this.out.writeByte(c);
+                break;
+            case '\b':
+                this.out.writeByte('b');
+                break;
+            case '\f':
+                this.out.writeByte('f');
+                break;
+            case '\n':
+                this.out.writeByte('n');
+                break;
+            case '\r':
+                this.out.writeByte('r');
+                break;
+            case '\t':
+                this.out.writeByte('t');
+                break;
+            default:
+                this.out.writeByte('u').writeByte('0').writeByte('0').writeByte(HEX[c >> 4]).writeByte(HEX[c & 0xF]);
+            }
+        }
+        plain(value, start, length);
+        this.out.writeByte('"');
+    }
+
+    private void plain(String value, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                this.out.writeCharSequence(value.subSequence(i, end), StandardCharsets.UTF_8);
+                return;
+            }
+            this.out.writeByte(c);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.automaton.http;
+
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.automaton.history.HistoryStore;
+import com.automaton.history.HistoryStore.Resolution;
+import com.automaton.http.HttpResponses.*;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.QueryStringDecoder;
+
+/**
+ * Serves /history?id=1.10&resolution=1m&from=..&to=.., times are epoch milliseconds. Raw samples are returned as
+ * [time, value], rollups as [start, min, max, avg, count].
+ *
+ * Paired controllers reach it through their session, local tools over plain HTTP from the loopback address.
+ */
+public class HistoryController {
+    private static final Logger logger = LoggerFactory.getLogger(HistoryController.class);
+
+    private final HistoryStore history;
+
+    public HistoryController(HistoryStore history) {
+        this.history = history;
+    }
+
+    public HttpResponse get(FullHttpRequest request) throws Exception {
+        Map<String, List<String>> parameters = new QueryStringDecoder(request.uri()).parameters();
+        String[] id = parameter(parameters, "id", "").split("\\.");
+        if (id.length != 2) {
+            logger.error("Unexpected history request: " + request.uri());
+            return new NotFoundResponse();
+        }
+        int aid;
+        int iid;
+        Resolution resolution;
+        long from;
+        long to;
+        try {
+            aid = Integer.parseInt(id[0]);
+            iid = Integer.parseInt(id[1]);
+            resolution = Resolution.fromLabel(parameter(parameters, "resolution", Resolution.RAW.label));
+            from = Long.parseLong(parameter(parameters, "from", "0"));
+            to = Long.parseLong(parameter(parameters, "to", String.valueOf(Long.MAX_VALUE)));
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException included.
+            logger.warn("Malformed history request {}: {}", request.uri(), e.getMessage());
+            return new BadRequestResponse();
+        }
+
+        HapJsonWriter writer = new HapJsonWriter(ByteBufAllocator.DEFAULT.heapBuffer());
+        try {
+            writer.startObject().name("aid").value(aid).name("iid").value(iid).name("resolution")
+                    .value(resolution.label).startArray("samples");
+            boolean found;
+            if (resolution == Resolution.RAW) {
+                found = history.query(aid, iid, from, to,
+                        (time, value) -> writer.startArray().value(time).value(value).endArray());
+            } else {
+                found = history.query(aid, iid, resolution, from, to, (start, min, max, avg, count) -> writer
+                        .startArray().value(start).value(min).value(max).value(avg).value(count).endArray());
+            }
+            if (!found) {
+                writer.buffer().release();
+                return new NotFoundResponse();
+            }
+            writer.endArray().endObject();
+        } catch (RuntimeException e) {
+            writer.buffer().release();
+            throw e;
+        }
+        return new HapJsonResponse(writer.buffer());
+    }
+
+    private static String parameter(Map<String, List<String>> parameters, String name, String def) {
+        List<String> values = parameters.get(name);
+        return values == null || values.isEmpty() ? def : values.get(0);
+    }
+}
@@ -1,18 +1,15 @@
 package com.automaton.http;
 
 import java.io.*;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.util.Collection;
-import java.util.function.Consumer;
+import java.util.concurrent.CompletableFuture;
 
-import org.bouncycastle.util.Pack;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.automaton.HomekitRegistry;
 import com.automaton.http.HttpResponses.UpgradeResponse;
-import com.automaton.security.ChachaAlgorithm;
+import com.automaton.security.AeadCipher;
+import com.automaton.security.AeadProvider;
 import com.automaton.security.JmdnsHomekitAdvertiser;
 import com.automaton.server.SubscriptionManager;
 
@@ -21,92 +18,82 @@ import io.netty.handler.codec.http.FullHttpRequest;
 public class HomekitConnection {
     private static final Logger LOGGER = LoggerFactory.getLogger(HomekitConnection.class);
 
-    private final LengthPrefixedProcessor binaryProcessor = new LengthPrefixedProcessor();
     private final HttpSession httpSession;
-    private int inboundBinaryMessageCount = 0;
-    private int outboundBinaryMessageCount = 0;
-    private byte[] readKey;
-    private byte[] writeKey;
+    private long inboundBinaryMessageCount = 0;
+    private long outboundBinaryMessageCount = 0;
+    private AeadCipher readSession;
+    private AeadCipher writeSession;
     private boolean isUpgraded = false;
-    private final Consumer<HttpResponse> messageCallback;
+    private final EventQueue events;
     private final SubscriptionManager subscriptions;
 
-    public HomekitConnection(HomekitRegistry registry, Consumer<HttpResponse> outOfBandMessageCallback,
-            SubscriptionManager subscriptions, JmdnsHomekitAdvertiser advertiser) {
-        this.httpSession = new HttpSession(registry, subscriptions, this, advertiser);
-        this.messageCallback = outOfBandMessageCallback;
-        this.subscriptions = subscriptions;
+    public HomekitConnection(HomekitRegistry registry, EventQueue events, SubscriptionManager subscriptions,
+            JmdnsHomekitAdvertiser advertiser) {
+        this(registry, events, subscriptions, advertiser, false);
     }
 
-    public HttpResponse handleRequest(FullHttpRequest request) throws IOException {
-        return doHandleRequest(request);
+    public HomekitConnection(HomekitRegistry registry, EventQueue events, SubscriptionManager subscriptions,
+            JmdnsHomekitAdvertiser advertiser, boolean local) {
+        this.httpSession = new HttpSession(registry, subscriptions, this, advertiser, local);
+        this.events = events;
+        this.subscriptions = subscriptions;
     }
 
-    private HttpResponse doHandleRequest(FullHttpRequest request) throws IOException {
-        HttpResponse response = isUpgraded ? httpSession.handleAuthenticatedRequest(request)
+    public CompletableFuture<HttpResponse> handleRequest(FullHttpRequest request) throws IOException {
+        String uri = request.uri();
+        CompletableFuture<HttpResponse> response = isUpgraded ? httpSession.handleAuthenticatedRequest(request)
                 : httpSession.handleRequest(request);
-        if (response instanceof UpgradeResponse) {
-            isUpgraded = true;
-            readKey = ((UpgradeResponse) response).getReadKey().array();
-            writeKey = ((UpgradeResponse) response).getWriteKey().array();
-        }
-        LOGGER.info(response.getStatusCode() + " " + request.uri());
-        return response;
+        // Pair verify is answered synchronously, so the session keys are in place before the next frame is read.
+        return response.thenApply(r -> {
+            if (r instanceof UpgradeResponse)
+                upgrade(((UpgradeResponse) r).getReadKey().array(), ((UpgradeResponse) r).getWriteKey().array());
+            LOGGER.info(r.getStatusCode() + " " + uri);
+            return r;
+        });
+    }
+
+    /**
+     * Switches to the session keys agreed in pair verify.
+     */
+    void upgrade(byte[] readKey, byte[] writeKey) {
+        this.isUpgraded = true;
+        this.readSession = AeadProvider.DEFAULT.create(false, readKey);
+        this.writeSession = AeadProvider.DEFAULT.create(true, writeKey);
     }
 
-    public byte[] decryptRequest(byte[] ciphertext) throws IOException {
+    /**
+     * Decrypts a frame in place, {@code length} bytes of ciphertext at {@code offset} followed by the 16 byte tag.
+     */
+    public void decryptFrame(byte[] frame, int offset, int length, byte[] additionalData) throws IOException {
         if (!this.isUpgraded)
             throw new IOException("Cannot handle binary before connection is upgraded");
-
-        Collection<byte[]> response = binaryProcessor.handle(ciphertext);
-        try (ByteArrayOutputStream decrypted = new ByteArrayOutputStream()) {
-            for (byte[] msg : response)
-                decrypted.write(decrypt(msg));
-
-            return decrypted.toByteArray();
-        }
+        this.readSession.open(this.inboundBinaryMessageCount++, additionalData, 0, additionalData.length, frame, offset,
+                length, frame, offset);
     }
 
-    public byte[] encryptResponse(byte[] response) throws IOException {
-        int offset = 0;
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            while (offset < response.length) {
-                short length = (short) Math.min(response.length - offset, 1024);
-                byte[] lengthBytes = ByteBuffer.allocate(2).order(ByteOrder.LITTLE_ENDIAN).putShort(length).array();
-                baos.write(lengthBytes);
-
-                byte[] nonce = Pack.longToLittleEndian(this.outboundBinaryMessageCount++);
-
-                byte[] plaintext;
-                if (response.length == length) {
-                    plaintext = response;
-                } else {
-                    plaintext = new byte[length];
-                    System.arraycopy(response, offset, plaintext, 0, length);
-                }
-                offset += length;
-                baos.write(new ChachaAlgorithm(true, this.writeKey, nonce).encode(plaintext, lengthBytes));
-            }
-            return baos.toByteArray();
-        }
+    /**
+     * @return true once the controller has sent its first encrypted frame, responses are encrypted from then on.
+     */
+    public boolean isEncrypting() {
+        return this.inboundBinaryMessageCount > 0;
     }
 
-    private byte[] decrypt(byte[] msg) throws IOException {
-        byte[] mac = new byte[16];
-        byte[] ciphertext = new byte[msg.length - 16];
-        System.arraycopy(msg, 0, ciphertext, 0, msg.length - 16);
-        System.arraycopy(msg, msg.length - 16, mac, 0, 16);
-        byte[] additionalData = ByteBuffer.allocate(2).order(ByteOrder.LITTLE_ENDIAN)
-                .putShort((short) (msg.length - 16)).array();
-        byte[] nonce = Pack.longToLittleEndian(this.inboundBinaryMessageCount++);
-        return new ChachaAlgorithm(false, this.readKey, nonce).decode(mac, additionalData, ciphertext);
+    /**
+     * Seals {@code length} bytes of {@code in}, at most {@link HapFrameDecoder#MAX_FRAME_LENGTH}, as one frame at
+     * {@code outOffset}: [short length][ciphertext][16 byte tag].
+     */
+    public void encryptFrame(byte[] in, int inOffset, int length, byte[] out, int outOffset) throws IOException {
+        out[outOffset] = (byte) length;
+        out[outOffset + 1] = (byte) (length >>> 8);
+        this.writeSession.seal(this.outboundBinaryMessageCount++, out, outOffset, 2, in, inOffset, length, out,
+                outOffset + 2);
     }
 
     public void close() {
         subscriptions.removeConnection(this);
     }
 
-    public void outOfBand(HttpResponse message) {
-        messageCallback.accept(message);
+    public void event(CharacteristicEvent event) {
+        events.offer(event);
     }
 }
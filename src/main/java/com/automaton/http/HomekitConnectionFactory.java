@@ -1,7 +1,5 @@
 package com.automaton.http;
 
-import java.util.function.Consumer;
-
 import com.automaton.HomekitRegistry;
 import com.automaton.security.JmdnsHomekitAdvertiser;
 import com.automaton.server.SubscriptionManager;
@@ -18,7 +16,10 @@ public class HomekitConnectionFactory {
         this.advertiser = advertiser;
     }
 
-    public HomekitConnection createConnection(Consumer<HttpResponse> outOfBandMessageCallback) {
-        return new HomekitConnection(this.registry, outOfBandMessageCallback, this.subscriptions, this.advertiser);
+    /**
+     * @param local whether the peer connected from the loopback address.
+     */
+    public HomekitConnection createConnection(EventQueue events, boolean local) {
+        return new HomekitConnection(this.registry, events, this.subscriptions, this.advertiser, local);
     }
 }
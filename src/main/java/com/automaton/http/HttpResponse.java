@@ -4,6 +4,9 @@ import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.Map;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
 public interface HttpResponse {
     int getStatusCode();
 
@@ -15,6 +18,13 @@ public interface HttpResponse {
         return ByteBuffer.allocate(0);
     }
 
+    /**
+     * The body as handed to Netty, wrapping {@link #getBody()} without a copy unless the response holds a buffer.
+     */
+    default ByteBuf getContent() {
+        return Unpooled.wrappedBuffer(getBody());
+    }
+
     default HttpVersion getVersion() {
         return HttpVersion.HTTP_1_1;
     }
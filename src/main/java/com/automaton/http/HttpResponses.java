@@ -7,12 +7,18 @@ import java.util.Map.Entry;
 
 import com.google.common.collect.ImmutableMap;
 
-import io.netty.buffer.Unpooled;
+import io.netty.buffer.ByteBuf;
 import io.netty.handler.codec.http.*;
 
 public class HttpResponses {
     private static final HttpVersion EVENT_VERSION = new HttpVersion("EVENT", 1, 0, true);
 
+    public static class BadRequestResponse implements HttpResponse {
+        public int getStatusCode() {
+            return 400;
+        }
+    }
+
     public static class ConflictResponse implements HttpResponse {
         public int getStatusCode() {
             return 409;
@@ -20,9 +26,9 @@ public class HttpResponses {
     }
 
     public static class InternalServerErrorResponse implements HttpResponse {
-        private final Exception e;
+        private final Throwable e;
 
-        public InternalServerErrorResponse(Exception e) {
+        public InternalServerErrorResponse(Throwable e) {
             this.e = e;
         }
 
@@ -36,7 +42,7 @@ public class HttpResponses {
             return ByteBuffer.wrap(e.getClass().getName().getBytes(StandardCharsets.UTF_8));
         }
 
-        public Exception getException() {
+        public Throwable getException() {
             return e;
         }
     }
@@ -49,14 +55,30 @@ public class HttpResponses {
 
     public static class OkResponse implements HttpResponse {
         private final ByteBuffer body;
+        private final ByteBuf content;
 
         public OkResponse(byte[] body) {
             this.body = ByteBuffer.wrap(body);
+            this.content = null;
+        }
+
+        /**
+         * Takes ownership of {@code content}, which is released once the response has been written. Such a response
+         * can only be written once.
+         */
+        public OkResponse(ByteBuf content) {
+            this.body = null;
+            this.content = content;
         }
 
         @Override
         public ByteBuffer getBody() {
-            return body;
+            return content == null ? body : content.nioBuffer();
+        }
+
+        @Override
+        public ByteBuf getContent() {
+            return content == null ? HttpResponse.super.getContent() : content;
         }
 
         @Override
@@ -79,12 +101,30 @@ public class HttpResponses {
             super(body);
         }
 
+        public HapJsonResponse(ByteBuf content) {
+            super(content);
+        }
+
         @Override
         public Map<String, String> getHeaders() {
             return HEADERS;
         }
     }
 
+    /**
+     * Body lists a "status" for every characteristic, HAP's way of reporting per item failures.
+     */
+    public static class HapJsonMultiStatusResponse extends HapJsonResponse {
+        public HapJsonMultiStatusResponse(ByteBuf content) {
+            super(content);
+        }
+
+        @Override
+        public int getStatusCode() {
+            return 207;
+        }
+    }
+
     public static class HapJsonNoContentResponse extends HapJsonResponse {
         public HapJsonNoContentResponse() {
             super(new byte[0]);
@@ -146,8 +186,7 @@ public class HttpResponses {
     public static FullHttpResponse createResponse(HttpResponse homekitResponse) {
         DefaultFullHttpResponse defaultFullHttpResponse = new DefaultFullHttpResponse(
                 (homekitResponse.getVersion() == HttpResponse.HttpVersion.EVENT_1_0) ? EVENT_VERSION : HttpVersion.HTTP_1_1,
-                HttpResponseStatus.valueOf(homekitResponse.getStatusCode()),
-                Unpooled.copiedBuffer(homekitResponse.getBody()));
+                HttpResponseStatus.valueOf(homekitResponse.getStatusCode()), homekitResponse.getContent());
         for (Entry<String, String> header : homekitResponse.getHeaders().entrySet())
             defaultFullHttpResponse.headers().add(header.getKey(), header.getValue());
         defaultFullHttpResponse.headers().set("Content-Length", defaultFullHttpResponse.content().readableBytes());
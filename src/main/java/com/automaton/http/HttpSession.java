@@ -2,12 +2,15 @@ package com.automaton.http;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.automaton.HomekitRegistry;
 import com.automaton.accessories.Accessory;
+import com.automaton.history.HistoryStore;
 import com.automaton.pairing.*;
 import com.automaton.security.JmdnsHomekitAdvertiser;
 import com.automaton.server.SubscriptionManager;
@@ -23,57 +26,80 @@ public class HttpSession {
     private volatile PairVerificationManager pairVerificationManager;
     private volatile AccessoryController accessoryController;
     private volatile CharacteristicsController characteristicsController;
+    private volatile HistoryController historyController;
     private final HomekitRegistry registry;
     private final SubscriptionManager subscriptions;
     private final HomekitConnection connection;
     private final JmdnsHomekitAdvertiser advertiser;
+    // Connected from the loopback address, local tools may read the history without pairing.
+    private final boolean local;
 
     public HttpSession(HomekitRegistry registry, SubscriptionManager subscriptions, HomekitConnection connection,
-            JmdnsHomekitAdvertiser advertiser) {
+            JmdnsHomekitAdvertiser advertiser, boolean local) {
         this.registry = registry;
         this.subscriptions = subscriptions;
         this.connection = connection;
         this.advertiser = advertiser;
+        this.local = local;
     }
 
-    public HttpResponse handleRequest(FullHttpRequest request) throws IOException {
+    public CompletableFuture<HttpResponse> handleRequest(FullHttpRequest request) throws IOException {
         switch (request.getUri()) {
         case "/pair-setup":
-            return handlePairSetup(request);
+            return CompletableFuture.completedFuture(handlePairSetup(request));
         case "/pair-verify":
-            return handlePairVerify(request);
+            return CompletableFuture.completedFuture(handlePairVerify(request));
+        }
+        if (local && request.uri().startsWith("/history?")) {
+            return handleAuthenticatedRequest(request);
         }
         if (registry.isAllowUnauthenticatedRequests()) {
             return handleAuthenticatedRequest(request);
         }
         logger.info("Unrecognized request for " + request.getUri());
-        return new HttpResponses.NotFoundResponse();
+        return CompletableFuture.completedFuture(new HttpResponses.NotFoundResponse());
     }
 
-    public HttpResponse handleAuthenticatedRequest(FullHttpRequest request) throws IOException {
+    /**
+     * Requests that reach devices complete asynchronously, everything else is answered before this returns. The
+     * request is released once this returns, so its content must not be read by the returned future.
+     */
+    public CompletableFuture<HttpResponse> handleAuthenticatedRequest(FullHttpRequest request) throws IOException {
+        CompletableFuture<HttpResponse> response;
         try {
-            switch (request.getUri()) {
-            case "/accessories":
-                return getAccessoryController().listing();
-            case "/characteristics":
-                if (request.getMethod().equals(HttpMethod.PUT)) {
-                    return getCharacteristicsController().put(request, connection);
-                }
-                logger.info("Unrecognized method for " + request.getUri());
-                return new HttpResponses.NotFoundResponse();
-
-            case "/pairings":
-                return (new PairingUpdateController(advertiser)).handle(request);
-            }
-            if (request.getUri().startsWith("/characteristics?")) {
-                return getCharacteristicsController().get(request);
-            }
-            logger.info("Unrecognized request for " + request.getUri());
-            return new HttpResponses.NotFoundResponse();
+            response = route(request);
         } catch (Exception e) {
+            response = new CompletableFuture<>();
+            response.completeExceptionally(e);
+        }
+        return response.exceptionally(e -> {
             logger.error("Could not handle request", e);
-            return new HttpResponses.InternalServerErrorResponse(e);
+            return new HttpResponses.InternalServerErrorResponse(e instanceof CompletionException ? e.getCause() : e);
+        });
+    }
+
+    private CompletableFuture<HttpResponse> route(FullHttpRequest request) throws Exception {
+        switch (request.getUri()) {
+        case "/accessories":
+            return getAccessoryController().listing();
+        case "/characteristics":
+            if (request.getMethod().equals(HttpMethod.PUT)) {
+                return getCharacteristicsController().put(request, connection);
+            }
+            logger.info("Unrecognized method for " + request.getUri());
+            return CompletableFuture.completedFuture(new HttpResponses.NotFoundResponse());
+
+        case "/pairings":
+            return CompletableFuture.completedFuture((new PairingUpdateController(advertiser)).handle(request));
+        }
+        if (request.getUri().startsWith("/characteristics?")) {
+            return getCharacteristicsController().get(request);
         }
+        if (request.getUri().startsWith("/history?")) {
+            return CompletableFuture.completedFuture(getHistoryController().get(request));
+        }
+        logger.info("Unrecognized request for " + request.getUri());
+        return CompletableFuture.completedFuture(new HttpResponses.NotFoundResponse());
     }
 
     private HttpResponse handlePairSetup(FullHttpRequest request) {
@@ -119,6 +145,12 @@ public class HttpSession {
         return characteristicsController;
     }
 
+    private synchronized HistoryController getHistoryController() {
+        if (historyController == null)
+            historyController = new HistoryController(HistoryStore.INSTANCE);
+        return historyController;
+    }
+
     public static class SessionKey {
         private final InetAddress address;
         private final Accessory accessory;
@@ -1,6 +1,7 @@
 package com.automaton.pairing;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
 
@@ -16,11 +17,13 @@ import com.automaton.HomekitRegistry;
 import com.automaton.http.HttpResponse;
 import com.automaton.http.HttpResponses;
 import com.automaton.security.*;
+import com.automaton.server.DBCodec;
 import com.automaton.server.FileBasedDB;
 import com.automaton.utils.AutomatonUtils;
 
 import djb.Curve25519;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
 import io.netty.handler.codec.http.FullHttpRequest;
 
@@ -37,6 +40,18 @@ public class PairVerificationManager {
         private byte[] sharedSecret = new byte[32];
         private byte[] hkdfKey = new byte[32];
 
+        public static final DBCodec<EncriptionData> CODEC = new DBCodec<EncriptionData>() {
+            public EncriptionData decode(ByteBuffer buffer) throws IOException {
+                return deserialize(Unpooled.wrappedBuffer(buffer));
+            }
+
+            public byte[] encode(EncriptionData data) throws IOException {
+                ByteBuf buffer = Unpooled.buffer();
+                serialize(data, buffer);
+                return ByteBufUtil.getBytes(buffer);
+            }
+        };
+
         public static void serialize(EncriptionData data, ByteBuf stream) throws IOException {
             write(stream, data.clientPublicKey);
             write(stream, data.publicKey);
@@ -129,17 +144,12 @@ public class PairVerificationManager {
     }
 
     private EncriptionData getEncriptionData() throws IOException {
-        byte[] bytes = PAIR_VERIFICATION_DB.get("instance");
-        EncriptionData data = new EncriptionData();
-        if (bytes != null)
-            data = EncriptionData.deserialize(Unpooled.wrappedBuffer(bytes));
-        return data;
+        EncriptionData data = PAIR_VERIFICATION_DB.get("instance", EncriptionData.CODEC);
+        return data == null ? new EncriptionData() : data;
     }
 
     private void write(EncriptionData data) throws IOException {
-        ByteBuf buffer = Unpooled.buffer();
-        EncriptionData.serialize(data, buffer);
-        PAIR_VERIFICATION_DB.put("instance", buffer.array());
+        PAIR_VERIFICATION_DB.put("instance", data, EncriptionData.CODEC);
     }
 
     private HttpResponse stage2(PairVerificationRequest.Stage2Request request) throws Exception {
@@ -19,7 +19,8 @@ public class PairingManager {
     private static final Logger logger = LoggerFactory.getLogger(PairingManager.class);
 
     public enum MessageType {
-        METHOD(0), USERNAME(1), SALT(2), PUBLIC_KEY(3), PROOF(4), ENCRYPTED_DATA(5), STATE(6), ERROR(7), SIGNATURE(10);
+        METHOD(0), USERNAME(1), SALT(2), PUBLIC_KEY(3), PROOF(4), ENCRYPTED_DATA(5), STATE(6), ERROR(7), SIGNATURE(10),
+        PERMISSIONS(11), SEPARATOR(255);
 
         private final short key;
 
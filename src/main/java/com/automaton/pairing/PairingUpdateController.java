@@ -2,6 +2,7 @@ package com.automaton.pairing;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.Map;
 
 import com.automaton.http.HttpResponse;
 import com.automaton.http.HttpResponses;
@@ -31,9 +32,27 @@ public class PairingUpdateController {
             byte[] username = d.getBytes(PairingManager.MessageType.USERNAME);
             Authenticator.INSTANCE.removeUser(new String(username, StandardCharsets.UTF_8));
             this.advertiser.setDiscoverable(true);
+        } else if (method == 5) {
+            return listPairings();
         } else {
             throw new RuntimeException("Unrecognized method: " + method);
         }
         return new HttpResponses.PairingResponse(new byte[] { 6, 1, 2 });
     }
+
+    private HttpResponse listPairings() throws IOException {
+        TypeLengthValueUtils.Encoder encoder = TypeLengthValueUtils.getEncoder();
+        encoder.add(PairingManager.MessageType.STATE, (short) 2);
+        boolean first = true;
+        for (Map.Entry<String, byte[]> user : Authenticator.INSTANCE.getUsers().entrySet()) {
+            if (!first)
+                encoder.addSeparator();
+            first = false;
+            encoder.add(PairingManager.MessageType.USERNAME, user.getKey().getBytes(StandardCharsets.UTF_8));
+            encoder.add(PairingManager.MessageType.PUBLIC_KEY, user.getValue());
+            // Permissions are not stored, only admin controllers can list pairings so report everyone as admin.
+            encoder.add(PairingManager.MessageType.PERMISSIONS, (short) 1);
+        }
+        return new HttpResponses.PairingResponse(encoder.toByteArray());
+    }
 }
@@ -49,6 +49,11 @@ public class TypeLengthValueUtils {
             }
         }
 
+        public void addSeparator() {
+            this.baos.write(PairingManager.MessageType.SEPARATOR.getKey());
+            this.baos.write(0);
+        }
+
         public byte[] toByteArray() {
             return this.baos.toByteArray();
         }
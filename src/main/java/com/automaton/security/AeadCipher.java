@@ -0,0 +1,26 @@
+package com.automaton.security;
+
+import java.io.IOException;
+
+/**
+ * ChaCha20-Poly1305 for one direction of an encrypted connection, see {@link AeadProvider} for the implementations.
+ *
+ * The 8 byte nonce is HAP's frame counter, little endian. Ciphertext and plaintext have the same length and the tag
+ * follows the ciphertext. {@code in} and {@code out} may be the same region. Implementations are not thread safe.
+ */
+public interface AeadCipher {
+    int TAG_LENGTH = 16;
+
+    /**
+     * Encrypts {@code length} bytes of {@code in} into {@code out} and writes the tag right after the ciphertext.
+     */
+    void seal(long nonce, byte[] additionalData, int additionalOffset, int additionalLength, byte[] in, int inOffset,
+            int length, byte[] out, int outOffset) throws IOException;
+
+    /**
+     * Verifies the tag following the {@code length} bytes of ciphertext in {@code in}, then decrypts them into
+     * {@code out}.
+     */
+    void open(long nonce, byte[] additionalData, int additionalOffset, int additionalLength, byte[] in, int inOffset,
+            int length, byte[] out, int outOffset) throws IOException;
+}
@@ -0,0 +1,63 @@
+package com.automaton.security;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.automaton.server.AutomatonConfiguration;
+
+/**
+ * The {@link AeadCipher} implementations. {@link #DEFAULT} is picked once at startup from "security.aead.provider":
+ * bouncycastle, jdk, or auto (the default) which prefers the JDK cipher when the runtime has one.
+ */
+public enum AeadProvider {
+    BOUNCYCASTLE {
+        @Override
+        public AeadCipher create(boolean forEncryption, byte[] key) {
+            return new ChaChaSession(forEncryption, key);
+        }
+    },
+    JDK {
+        @Override
+        public AeadCipher create(boolean forEncryption, byte[] key) {
+            try {
+                return new JdkChaChaSession(forEncryption, key);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(JdkChaChaSession.TRANSFORMATION + " is not available", e);
+            }
+        }
+    };
+
+    private static final Logger logger = LoggerFactory.getLogger(AeadProvider.class);
+
+    public static final AeadProvider DEFAULT = select(
+            AutomatonConfiguration.getString("security.aead.provider", "auto"));
+
+    public abstract AeadCipher create(boolean forEncryption, byte[] key);
+
+    public static boolean isJdkAvailable() {
+        try {
+            Cipher.getInstance(JdkChaChaSession.TRANSFORMATION);
+            return true;
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    static AeadProvider select(String name) {
+        AeadProvider provider;
+        if ("auto".equalsIgnoreCase(name))
+            provider = isJdkAvailable() ? JDK : BOUNCYCASTLE;
+        else
+            provider = valueOf(name.toUpperCase());
+        if (provider == JDK && !isJdkAvailable()) {
+            logger.warn("{} is not available on this runtime, using BouncyCastle", JdkChaChaSession.TRANSFORMATION);
+            provider = BOUNCYCASTLE;
+        }
+        logger.info("Using the {} ChaCha20-Poly1305 implementation", provider.name().toLowerCase());
+        return provider;
+    }
+}
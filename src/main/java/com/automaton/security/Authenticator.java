@@ -2,13 +2,19 @@ package com.automaton.security;
 
 import java.io.IOError;
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.automaton.HomekitServer;
 import com.automaton.server.AutomatonConfiguration;
+import com.automaton.server.DBCodecs;
 import com.automaton.server.FileBasedDB;
+import com.automaton.server.FileBasedDB.Durability;
+import com.automaton.server.WriteBatch;
 
 public class Authenticator {
     private static final Logger logger = LoggerFactory.getLogger(Authenticator.class);
@@ -23,9 +29,10 @@ public class Authenticator {
 
     public Authenticator() {
         try {
-            this.mac = AUTH_INFO_DB.putIfAbsent("mac-address", HomekitServer.generateMac());
-            this.salt = AUTH_INFO_DB.putIfAbsent("mac-address", HomekitServer.generateSalt());
-            this.privateKey = AUTH_INFO_DB.putIfAbsent("mac-address", HomekitServer.generateKey());
+            Identity identity = new Identity(AUTH_INFO_DB);
+            this.mac = identity.mac;
+            this.salt = identity.salt;
+            this.privateKey = identity.privateKey;
         } catch (Throwable th) {
             throw new IOError(th);
         }
@@ -49,16 +56,61 @@ public class Authenticator {
     }
 
     public void createUser(String username, byte[] publicKey) {
-        AUTH_INFO_DB.put(getMac() + username, publicKey);
+        AUTH_INFO_DB.put(getMac() + username, publicKey, Durability.FSYNC).join();
         logger.info("Added pairing for {}", username);
     }
 
     public void removeUser(String username) {
-        AUTH_INFO_DB.remove(getMac() + username);
+        AUTH_INFO_DB.remove(getMac() + username, Durability.FSYNC).join();
         logger.info("Removed pairing for {}", username);
     }
 
     public byte[] getUserPublicKey(String username) {
         return AUTH_INFO_DB.get(getMac() + username);
     }
+
+    /**
+     * @return public keys of the paired users by username.
+     */
+    public Map<String, byte[]> getUsers() {
+        Map<String, byte[]> users = new LinkedHashMap<>();
+        FileBasedDB.Cursor cursor = AUTH_INFO_DB.scan(getMac());
+        while (cursor.next())
+            users.put(cursor.key().substring(getMac().length()), cursor.bytes());
+        return users;
+    }
+
+    /**
+     * The hub's identity. Older releases only stored the mac and derived the salt and the private key from it, those
+     * derived values are kept so existing pairings still verify; only a first boot generates new ones.
+     */
+    static class Identity {
+        final String mac;
+        final BigInteger salt;
+        final byte[] privateKey;
+
+        Identity(FileBasedDB db) throws Exception {
+            String mac = db.get("mac-address", DBCodecs.UTF8);
+            BigInteger salt = db.get("salt", DBCodecs.BIG_INTEGER);
+            byte[] privateKey = db.get("private-key");
+            // The identity is written together, a crash half way must not leave a mac without its key.
+            WriteBatch batch = new WriteBatch();
+            if (mac == null) {
+                batch.put("mac-address", mac = HomekitServer.generateMac(), DBCodecs.UTF8);
+                batch.put("salt", salt = HomekitServer.generateSalt(), DBCodecs.BIG_INTEGER);
+                batch.put("private-key", privateKey = HomekitServer.generateKey());
+            } else if (salt == null || privateKey == null) {
+                byte[] legacy = mac.getBytes(StandardCharsets.UTF_8);
+                logger.info("Migrating the identity of {}", mac);
+                if (salt == null)
+                    batch.put("salt", salt = new BigInteger(legacy), DBCodecs.BIG_INTEGER);
+                if (privateKey == null)
+                    batch.put("private-key", privateKey = legacy);
+            }
+            db.write(batch, Durability.FSYNC).join();
+            this.mac = mac;
+            this.salt = salt;
+            this.privateKey = privateKey;
+        }
+    }
 }
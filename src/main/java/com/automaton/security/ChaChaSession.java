@@ -0,0 +1,89 @@
+package com.automaton.security;
+
+import java.io.IOException;
+
+import org.bouncycastle.crypto.engines.ChaChaEngine;
+import org.bouncycastle.crypto.generators.Poly1305KeyGenerator;
+import org.bouncycastle.crypto.macs.Poly1305;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.bouncycastle.crypto.tls.TlsFatalAlert;
+import org.bouncycastle.util.Pack;
+
+/**
+ * BouncyCastle {@link AeadCipher}, the same construction as {@link ChachaAlgorithm}.
+ *
+ * The engine, the MAC and every scratch array are created with the session and reused for each frame; moving to the
+ * next nonce only re-initialises the engine with the key it already holds.
+ */
+public class ChaChaSession implements AeadCipher {
+    private static final byte[] ZERO = new byte[64];
+
+    private final boolean forEncryption;
+    private final ChaChaEngine engine = new ChaChaEngine(20);
+    private final ParametersWithIV nonceOnly = new ParametersWithIV(null, new byte[8]);
+    private final Poly1305 poly = new Poly1305();
+    private final KeyParameter macKey = new KeyParameter(new byte[32]);
+    private final byte[] keyBlock = new byte[64];
+    private final byte[] lengths = new byte[16];
+    private final byte[] tag = new byte[TAG_LENGTH];
+
+    public ChaChaSession(boolean forEncryption, byte[] key) {
+        this.forEncryption = forEncryption;
+        this.engine.init(forEncryption, new ParametersWithIV(new KeyParameter(key), new byte[8]));
+    }
+
+    @Override
+    public void seal(long nonce, byte[] additionalData, int additionalOffset, int additionalLength, byte[] in,
+            int inOffset, int length, byte[] out, int outOffset) {
+        start(nonce);
+        this.engine.processBytes(in, inOffset, length, out, outOffset);
+        mac(additionalData, additionalOffset, additionalLength, out, outOffset, length);
+        System.arraycopy(this.tag, 0, out, outOffset + length, TAG_LENGTH);
+    }
+
+    @Override
+    public void open(long nonce, byte[] additionalData, int additionalOffset, int additionalLength, byte[] in,
+            int inOffset, int length, byte[] out, int outOffset) throws IOException {
+        start(nonce);
+        mac(additionalData, additionalOffset, additionalLength, in, inOffset, length);
+        int difference = 0;
+        for (int i = 0; i < TAG_LENGTH; i++)
+            difference |= this.tag[i] ^ in[inOffset + length + i];
+        if (difference != 0)
+            throw new TlsFatalAlert((short) 20);
+        this.engine.processBytes(in, inOffset, length, out, outOffset);
+    }
+
+    /**
+     * Re-keys the engine for the nonce and derives the one time Poly1305 key from the first keystream block.
+     */
+    private void start(long nonce) {
+        Pack.longToLittleEndian(nonce, this.nonceOnly.getIV(), 0);
+        this.engine.init(this.forEncryption, this.nonceOnly);
+        this.engine.processBytes(ZERO, 0, ZERO.length, this.keyBlock, 0);
+        // Same key layout as ChachaAlgorithm.initRecordMAC.
+        byte[] key = this.macKey.getKey();
+        System.arraycopy(this.keyBlock, 16, key, 0, 16);
+        System.arraycopy(this.keyBlock, 0, key, 16, 16);
+        Poly1305KeyGenerator.clamp(key);
+        this.poly.init(this.macKey);
+    }
+
+    private void mac(byte[] additionalData, int additionalOffset, int additionalLength, byte[] ciphertext,
+            int offset, int length) {
+        this.poly.update(additionalData, additionalOffset, additionalLength);
+        pad(additionalLength);
+        this.poly.update(ciphertext, offset, length);
+        pad(length);
+        Pack.longToLittleEndian(additionalLength, this.lengths, 0);
+        Pack.longToLittleEndian(length, this.lengths, 8);
+        this.poly.update(this.lengths, 0, this.lengths.length);
+        this.poly.doFinal(this.tag, 0);
+    }
+
+    private void pad(int length) {
+        if (length % 16 != 0)
+            this.poly.update(ZERO, 0, 16 - length % 16);
+    }
+}
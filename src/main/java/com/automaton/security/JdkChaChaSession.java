@@ -0,0 +1,61 @@
+package com.automaton.security;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.bouncycastle.util.Pack;
+
+/**
+ * {@link AeadCipher} on the JDK's "ChaCha20-Poly1305" cipher, available from Java 11. That is the RFC 7539 variant
+ * with a 12 byte nonce, HAP's 8 byte nonce is its last 8 bytes with the first 4 left zero.
+ */
+class JdkChaChaSession implements AeadCipher {
+    static final String TRANSFORMATION = "ChaCha20-Poly1305";
+
+    private final int mode;
+    private final Cipher cipher;
+    private final SecretKeySpec key;
+    private final byte[] nonce = new byte[12];
+
+    JdkChaChaSession(boolean forEncryption, byte[] key) throws GeneralSecurityException {
+        this.mode = forEncryption ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE;
+        this.cipher = Cipher.getInstance(TRANSFORMATION);
+        this.key = new SecretKeySpec(key, "ChaCha20");
+    }
+
+    @Override
+    public void seal(long nonce, byte[] additionalData, int additionalOffset, int additionalLength, byte[] in,
+            int inOffset, int length, byte[] out, int outOffset) throws IOException {
+        try {
+            start(nonce, additionalData, additionalOffset, additionalLength);
+            this.cipher.doFinal(in, inOffset, length, out, outOffset);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unable to encrypt frame " + nonce, e);
+        }
+    }
+
+    @Override
+    public void open(long nonce, byte[] additionalData, int additionalOffset, int additionalLength, byte[] in,
+            int inOffset, int length, byte[] out, int outOffset) throws IOException {
+        try {
+            start(nonce, additionalData, additionalOffset, additionalLength);
+            this.cipher.doFinal(in, inOffset, length + TAG_LENGTH, out, outOffset);
+        } catch (AEADBadTagException e) {
+            throw new IOException("Frame " + nonce + " failed authentication", e);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unable to decrypt frame " + nonce, e);
+        }
+    }
+
+    private void start(long nonce, byte[] additionalData, int additionalOffset, int additionalLength)
+            throws GeneralSecurityException {
+        Pack.longToLittleEndian(nonce, this.nonce, 4);
+        this.cipher.init(this.mode, this.key, new IvParameterSpec(this.nonce));
+        this.cipher.updateAAD(additionalData, additionalOffset, additionalLength);
+    }
+}
@@ -0,0 +1,19 @@
+package com.automaton.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Serializer for structured values kept in a {@link FileBasedDB}.
+ */
+public interface DBCodec<T> {
+    /**
+     * @param buffer read only view of the stored value, may be a slice of a memory mapped snapshot.
+     */
+    T decode(ByteBuffer buffer) throws IOException;
+
+    /**
+     * @return a new array, the DB keeps it as the stored value.
+     */
+    byte[] encode(T value) throws IOException;
+}
@@ -0,0 +1,59 @@
+package com.automaton.server;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codecs for the value types the code base keeps in a {@link FileBasedDB}.
+ */
+public class DBCodecs {
+    public static final DBCodec<String> UTF8 = new DBCodec<String>() {
+        public String decode(ByteBuffer buffer) {
+            return toUTF8(buffer);
+        }
+
+        public byte[] encode(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+    };
+
+    public static final DBCodec<BigInteger> BIG_INTEGER = new DBCodec<BigInteger>() {
+        public BigInteger decode(ByteBuffer buffer) {
+            return new BigInteger(toBytes(buffer));
+        }
+
+        public byte[] encode(BigInteger value) {
+            return value.toByteArray();
+        }
+    };
+
+    public static final DBCodec<byte[]> BYTES = new DBCodec<byte[]>() {
+        public byte[] decode(ByteBuffer buffer) {
+            return toBytes(buffer);
+        }
+
+        public byte[] encode(byte[] value) {
+            return value.clone();
+        }
+    };
+
+    private DBCodecs() {
+    }
+
+    /**
+     * Copies the remaining bytes without moving the position of the buffer.
+     */
+    static byte[] toBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    static String toUTF8(ByteBuffer buffer) {
+        if (buffer.hasArray())
+            return new String(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(),
+                    StandardCharsets.UTF_8);
+        return StandardCharsets.UTF_8.decode(buffer.duplicate()).toString();
+    }
+}
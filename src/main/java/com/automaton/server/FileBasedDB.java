@@ -2,20 +2,28 @@ package com.automaton.server;
 
 import java.io.*;
 import java.math.BigInteger;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.base.Charsets;
-import com.google.common.primitives.Ints;
-import com.google.common.primitives.Longs;
 
 /**
  * Poor man DB to store the local states on restarts.
- * 
+ *
+ * Mutations are appended to a {@link WriteAheadLog}, so the cost of a write is the size of the change. The log is
+ * periodically compacted into a {@link SnapshotFile}, which is replaced atomically so a crash never leaves a half
+ * written file. Values loaded from the snapshot stay in the memory mapped file and are served as slices of it.
+ *
+ * Every namespace is synced by the shared {@link FlushScheduler}; writers choose how long they wait for it through
+ * {@link Durability}.
+ *
  * TODO use SQLLite?
  */
 public class FileBasedDB {
@@ -23,68 +31,282 @@ public class FileBasedDB {
 
     public static final String DB_FILE_LOCATION = AutomatonConfiguration.getString("db.file.location", "/tmp/vj_hub");
     public static final ScheduledExecutorService EXECUTOR = Executors.newScheduledThreadPool(1);
+    private static final long COMPACTION_THRESHOLD = AutomatonConfiguration.getLong("db.compaction.threshold_bytes",
+            4 * 1024 * 1024);
+    private static final long HEAP_BUDGET = AutomatonConfiguration.getLong("db.cache.max_bytes", 1024 * 1024);
+    // Trades the memory mapping of the snapshot for less I/O on slow storage. A deflated snapshot is held on heap, so
+    // only a namespace whose values fit in the heap budget is deflated, larger ones stay mapped.
+    private static final boolean COMPRESS = AutomatonConfiguration.getBoolean("db.snapshot.compress", false);
+    private static final long FLUSH_INTERVAL = AutomatonConfiguration.getLong("db.flush.interval_ms", 1000);
+    private static final FlushScheduler FLUSHER = new FlushScheduler(EXECUTOR, FLUSH_INTERVAL);
+    private static final CompletableFuture<Void> COMPLETED = CompletableFuture.completedFuture(null);
+
+    /**
+     * How far a write has to get before it is acknowledged.
+     */
+    public enum Durability {
+        /** Acknowledged once in memory, reaches the disk with the next group commit. */
+        ASYNC,
+        /** Acknowledged once the next group commit has synced it. */
+        BATCHED,
+        /** Acknowledged once synced, the group commit is started right away instead of on the next interval. */
+        FSYNC;
+    }
 
     private final AtomicBoolean dirtyCache = new AtomicBoolean(false);
+    // Bytes of values held on heap because they are newer than the snapshot.
+    private final AtomicLong heapBytes = new AtomicLong();
+    private final LongAdder heapHits = new LongAdder();
+    private final LongAdder diskReads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
 
-    private volatile File dataFile;
+    private final File dataFile;
+    private final WriteAheadLog log;
+    private List<CompletableFuture<Void>> waiting = new ArrayList<>();
     public final String namespace;
-    public final ConcurrentHashMap<String, byte[]> rows = new ConcurrentHashMap<>();
+    // Sorted so sub-keys of a prefix can be listed without looking at the rest.
+    public final ConcurrentSkipListMap<String, ByteBuffer> rows = new ConcurrentSkipListMap<>();
 
     public FileBasedDB(String namespace) {
+        this(new File(DB_FILE_LOCATION), namespace);
+    }
+
+    public FileBasedDB(File location, String namespace) {
         this.namespace = namespace;
-        File namespaceDir = new File(new File(DB_FILE_LOCATION), namespace);
+        File namespaceDir = new File(location, namespace);
         if (!namespaceDir.exists())
             namespaceDir.mkdirs();
         this.dataFile = new File(namespaceDir, "data.db");
+        this.log = new WriteAheadLog(namespaceDir);
         load();
-        EXECUTOR.scheduleAtFixedRate(new ScheduledSave(), 1L, 1L, TimeUnit.SECONDS);
+        FLUSHER.register(this);
     }
 
+    /**
+     * @return a copy of the value, callers are free to modify it.
+     */
     public byte[] get(String key) {
-        return this.rows.get(key);
+        ByteBuffer value = row(key);
+        return value == null ? null : DBCodecs.toBytes(value);
+    }
+
+    /**
+     * @return a read only view of the value without copying it, or null when the key is absent.
+     */
+    public ByteBuffer getBuffer(String key) {
+        ByteBuffer value = row(key);
+        return value == null ? null : value.asReadOnlyBuffer();
+    }
+
+    public <T> T get(String key, DBCodec<T> codec) throws IOException {
+        ByteBuffer value = row(key);
+        return value == null ? null : codec.decode(value.asReadOnlyBuffer());
+    }
+
+    public int getInt(String key, int def) {
+        ByteBuffer value = row(key);
+        return value == null ? def : value.getInt(value.position());
+    }
+
+    public long getLong(String key, long def) {
+        ByteBuffer value = row(key);
+        return value == null ? def : value.getLong(value.position());
+    }
+
+    public double getDouble(String key, double def) {
+        ByteBuffer value = row(key);
+        return value == null ? def : value.getDouble(value.position());
+    }
+
+    public boolean getBoolean(String key, boolean def) {
+        ByteBuffer value = row(key);
+        return value == null ? def : value.get(value.position()) != 0;
+    }
+
+    public void putInt(String key, int value) {
+        putOwned(key, ByteBuffer.allocate(Integer.BYTES).putInt(0, value).array(), Durability.ASYNC);
+    }
+
+    public void putLong(String key, long value) {
+        putOwned(key, ByteBuffer.allocate(Long.BYTES).putLong(0, value).array(), Durability.ASYNC);
+    }
+
+    public void putDouble(String key, double value) {
+        putOwned(key, ByteBuffer.allocate(Double.BYTES).putDouble(0, value).array(), Durability.ASYNC);
+    }
+
+    public void putBoolean(String key, boolean value) {
+        putOwned(key, new byte[] { (byte) (value ? 1 : 0) }, Durability.ASYNC);
+    }
+
+    public <T> void put(String key, T value, DBCodec<T> codec) throws IOException {
+        putOwned(key, codec.encode(value), Durability.ASYNC);
+    }
+
+    private ByteBuffer row(String key) {
+        ByteBuffer value = this.rows.get(key);
+        if (value != null)
+            (value.isDirect() ? this.diskReads : this.heapHits).increment();
+        return value;
+    }
+
+    public <T> CompletableFuture<Void> put(String key, T value, DBCodec<T> codec, Durability durability)
+            throws IOException {
+        return putOwned(key, codec.encode(value), durability);
+    }
+
+    public <T> T putIfAbsent(String key, T def, DBCodec<T> codec) throws IOException {
+        synchronized (this.log) {
+            T existing = get(key, codec);
+            if (existing != null)
+                return existing;
+            putOwned(key, codec.encode(def), Durability.ASYNC);
+            return def;
+        }
     }
 
     public String putIfAbsent(String key, String def) {
-        byte[] bytes = putIfAbsent(key, def.getBytes(Charsets.UTF_8));
-        return new String(bytes, Charsets.UTF_8);
+        synchronized (this.log) {
+            ByteBuffer existing = this.rows.get(key);
+            if (existing != null)
+                return DBCodecs.toUTF8(existing);
+            putOwned(key, def.getBytes(StandardCharsets.UTF_8), Durability.ASYNC);
+            return def;
+        }
     }
 
     public BigInteger putIfAbsent(String key, BigInteger def) {
-        byte[] bytes = putIfAbsent(key, def.toByteArray());
-        return new BigInteger(bytes);
+        synchronized (this.log) {
+            ByteBuffer existing = this.rows.get(key);
+            if (existing != null)
+                return new BigInteger(DBCodecs.toBytes(existing));
+            putOwned(key, def.toByteArray(), Durability.ASYNC);
+            return def;
+        }
     }
 
     public int putIfAbsent(String key, int def) {
-        byte[] bytes = putIfAbsent(key, Ints.toByteArray(def));
-        return Ints.fromByteArray(bytes);
+        synchronized (this.log) {
+            ByteBuffer existing = this.rows.get(key);
+            if (existing != null)
+                return existing.getInt(existing.position());
+            putInt(key, def);
+            return def;
+        }
     }
 
     public long putIfAbsent(String key, long def) {
-        byte[] bytes = putIfAbsent(key, Longs.toByteArray(def));
-        return Longs.fromByteArray(bytes);
+        synchronized (this.log) {
+            ByteBuffer existing = this.rows.get(key);
+            if (existing != null)
+                return existing.getLong(existing.position());
+            putLong(key, def);
+            return def;
+        }
     }
 
     public void put(String key, byte[] value) {
-        this.rows.put(key, value);
-        this.dirtyCache.set(true);
+        put(key, value, Durability.ASYNC);
+    }
+
+    /**
+     * The value is copied, the caller may reuse the array once this returns.
+     *
+     * @return a future completed once the value is as durable as requested.
+     */
+    public CompletableFuture<Void> put(String key, byte[] value, Durability durability) {
+        return putOwned(key, value.clone(), durability);
+    }
+
+    /**
+     * Takes over {@code value}, for arrays nobody else holds.
+     */
+    private CompletableFuture<Void> putOwned(String key, byte[] value, Durability durability) {
+        return append(log -> log.append(WriteAheadLog.PUT, key, value),
+                () -> putOnHeap(key, value), durability);
     }
 
     public void put(String key, String value) {
-        put(key, value.getBytes());
+        putOwned(key, value.getBytes(StandardCharsets.UTF_8), Durability.ASYNC);
     }
 
     public byte[] putIfAbsent(String key, byte[] bytes) {
-        byte[] b = this.rows.get(key);
-        if (b != null) {
-            return b;
+        synchronized (this.log) {
+            byte[] b = get(key);
+            if (b != null) {
+                return b;
+            }
+            put(key, bytes);
+            return bytes;
         }
-        put(key, bytes);
-        return bytes;
     }
 
     public void remove(String key) {
-        this.rows.remove(key);
-        this.dirtyCache.set(true);
+        remove(key, Durability.ASYNC);
+    }
+
+    public CompletableFuture<Void> remove(String key, Durability durability) {
+        return append(log -> log.append(WriteAheadLog.REMOVE, key, null), () -> removeRow(key), durability);
+    }
+
+    /**
+     * @return a cursor over the keys starting with the prefix, in key order.
+     */
+    public Cursor scan(String prefix) {
+        String end = successor(prefix);
+        return new Cursor(end == null ? this.rows.tailMap(prefix, true) : this.rows.subMap(prefix, true, end, false));
+    }
+
+    /**
+     * @return a cursor over the keys from {@code from} inclusive to {@code to} exclusive, in key order.
+     */
+    public Cursor scan(String from, String to) {
+        return new Cursor(this.rows.subMap(from, true, to, false));
+    }
+
+    /**
+     * Smallest string greater than every string starting with the prefix, null if there is none.
+     */
+    private static String successor(String prefix) {
+        int end = prefix.length();
+        while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE)
+            end--;
+        if (end == 0)
+            return null;
+        return prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1);
+    }
+
+    /**
+     * Forward only view over a key range. It is weakly consistent: writes made while iterating may or may not show
+     * up, but it never fails because of them.
+     */
+    public static class Cursor {
+        private final Iterator<Map.Entry<String, ByteBuffer>> entries;
+        private Map.Entry<String, ByteBuffer> current;
+
+        Cursor(NavigableMap<String, ByteBuffer> range) {
+            this.entries = range.entrySet().iterator();
+        }
+
+        public boolean next() {
+            this.current = this.entries.hasNext() ? this.entries.next() : null;
+            return this.current != null;
+        }
+
+        public String key() {
+            return this.current.getKey();
+        }
+
+        /**
+         * @return a read only view of the value, see {@link FileBasedDB#getBuffer(String)}.
+         */
+        public ByteBuffer value() {
+            return this.current.getValue().asReadOnlyBuffer();
+        }
+
+        public byte[] bytes() {
+            return DBCodecs.toBytes(this.current.getValue());
+        }
     }
 
     public int count() {
@@ -92,52 +314,237 @@ public class FileBasedDB {
     }
 
     public void clear() {
+        append(log -> log.append(WriteAheadLog.CLEAR, null, null), this::clearRows, Durability.ASYNC);
+    }
+
+    public void write(WriteBatch batch) {
+        write(batch, Durability.ASYNC);
+    }
+
+    /**
+     * Applies every put and remove of the batch under one lock and logs them as one record.
+     */
+    public CompletableFuture<Void> write(WriteBatch batch, Durability durability) {
+        if (batch.isEmpty())
+            return COMPLETED;
+        return append(log -> log.append(batch), () -> {
+            for (int i = 0; i < batch.size(); i++) {
+                byte[] value = batch.value(i);
+                if (value == null)
+                    removeRow(batch.key(i));
+                else
+                    putOnHeap(batch.key(i), value);
+            }
+        }, durability);
+    }
+
+    private void putOnHeap(String key, byte[] value) {
+        ByteBuffer replaced = this.rows.put(key, ByteBuffer.wrap(value));
+        this.heapBytes.addAndGet(value.length - heapSize(replaced));
+    }
+
+    private void removeRow(String key) {
+        this.heapBytes.addAndGet(-heapSize(this.rows.remove(key)));
+    }
+
+    private void clearRows() {
         this.rows.clear();
+        this.heapBytes.set(0);
+    }
+
+    /**
+     * @return the bytes the value holds on heap, none for a slice of the mapped snapshot.
+     */
+    private static long heapSize(ByteBuffer value) {
+        return value == null || value.isDirect() ? 0 : value.remaining();
+    }
+
+    private interface LogWrite {
+        void to(WriteAheadLog log) throws IOException;
+    }
+
+    /**
+     * Applies the change in memory and appends it to the log under the same lock, so the log order always matches
+     * the order in which the rows were changed.
+     */
+    private CompletableFuture<Void> append(LogWrite write, Runnable apply, Durability durability) {
+        CompletableFuture<Void> durable = durability == Durability.ASYNC ? COMPLETED : new CompletableFuture<>();
+        synchronized (this.log) {
+            try {
+                write.to(this.log);
+            } catch (IOException e) {
+                throw new IOError(e);
+            }
+            apply.run();
+            this.dirtyCache.set(true);
+            if (durable != COMPLETED)
+                this.waiting.add(durable);
+        }
+        // Never waits here, the commit runs on EXECUTOR and a writer on that thread would wait for itself.
+        if (durability == Durability.FSYNC)
+            FLUSHER.requestCommit();
+        return durable;
+    }
+
+    /**
+     * Pushes everything appended so far to the device, then completes the writers waiting for it. A failed sync
+     * leaves the namespace dirty so the next commit tries again. Called from the {@link FlushScheduler} thread only.
+     */
+    void commit() {
+        List<CompletableFuture<Void>> durable = Collections.emptyList();
+        try {
+            synchronized (this.log) {
+                if (this.dirtyCache.get()) {
+                    durable = this.waiting;
+                    this.waiting = new ArrayList<>();
+                    this.log.flush(true);
+                    this.dirtyCache.set(false);
+                }
+            }
+        } catch (Throwable th) {
+            logger.error("Exception in saving {} to file", this.namespace, th);
+            for (CompletableFuture<Void> future : durable)
+                future.completeExceptionally(th);
+            return;
+        }
+        for (CompletableFuture<Void> future : durable)
+            future.complete(null);
+
+        // Checked on every tick, the heap may be over budget without any new write, e.g. right after the log replay.
+        try {
+            if (this.log.size() > COMPACTION_THRESHOLD || this.heapBytes.get() > HEAP_BUDGET)
+                compact();
+        } catch (Throwable th) {
+            logger.error("Exception in compacting {}", this.namespace, th);
+        }
     }
 
     public void load() {
         try {
-            if (!this.dataFile.exists()) {
-                return;
+            long lastSegment = 0;
+            if (this.dataFile.exists()) {
+                if (SnapshotFile.isSnapshot(this.dataFile))
+                    lastSegment = SnapshotFile.read(this.dataFile, this.rows::put);
+                else
+                    SnapshotFile.readLegacy(this.dataFile, this.rows::put);
             }
-            try (DataInputStream stream = new DataInputStream(new FileInputStream(this.dataFile))) {
-                while (stream.available() > 0) {
-                    String key = stream.readUTF();
-                    int size = stream.readInt();
-                    byte[] bytes = new byte[size];
-                    stream.readFully(bytes);
-                    this.rows.put(key, bytes);
+            this.log.replay(new WriteAheadLog.Visitor() {
+                public void put(String key, byte[] value) {
+                    putOnHeap(key, value);
                 }
 
-            }
+                public void remove(String key) {
+                    removeRow(key);
+                }
+
+                public void clear() {
+                    clearRows();
+                }
+            }, lastSegment);
+            recountHeapBytes();
         } catch (IOException e) {
             throw new IOError(e);
         }
     }
 
-    public class ScheduledSave implements Runnable {
-        public void run() {
-            try {
-                if (!FileBasedDB.this.dirtyCache.get()) {
-                    return;
-                }
-                String path = FileBasedDB.this.dataFile.getAbsolutePath();
-                if (FileBasedDB.this.dataFile.exists()) {
-                    FileBasedDB.this.dataFile.delete();
-                }
+    /**
+     * Folds the log into a new snapshot. The log is rolled first, anything written while the snapshot is taken lands
+     * in the new segment and is replayed on top of it.
+     */
+    public void compact() throws IOException {
+        long sealed;
+        synchronized (this.log) {
+            sealed = this.log.roll();
+        }
+        boolean deflate = COMPRESS && valueBytes() <= HEAP_BUDGET;
+        SnapshotFile.write(this.dataFile, this.rows, sealed, deflate);
+        this.log.deleteUpTo(sealed);
+        // A deflated snapshot has no mapping to point the rows at, they stay on heap.
+        if (deflate)
+            recountHeapBytes();
+        else
+            evict();
+        logger.debug("Compacted {} into {} rows", this.namespace, this.rows.size());
+    }
 
-                FileBasedDB.this.dataFile = new File(path);
-                try (DataOutputStream stream = new DataOutputStream(new FileOutputStream(FileBasedDB.this.dataFile))) {
-                    for (Map.Entry<String, byte[]> entry : FileBasedDB.this.rows.entrySet()) {
-                        stream.writeUTF(entry.getKey());
-                        byte[] value = entry.getValue();
-                        stream.writeInt(value.length);
-                        stream.write(value);
-                    }
-                }
-            } catch (Throwable th) {
-                logger.error("Exception in saving to file", th);
+    /**
+     * Points every row that made it into the snapshot at its slice of the new mapping. Heap copies become garbage and
+     * the previous snapshot file can be released; rows changed in the meantime keep their newer value.
+     */
+    private void evict() throws IOException {
+        SnapshotFile.read(this.dataFile, (key, slice) -> {
+            ByteBuffer current = this.rows.get(key);
+            if (current != null && current.equals(slice) && this.rows.replace(key, current, slice)
+                    && !current.isDirect())
+                this.evictions.increment();
+        });
+        recountHeapBytes();
+    }
+
+    private long valueBytes() {
+        long bytes = 0;
+        for (ByteBuffer value : this.rows.values())
+            bytes += value.remaining();
+        return bytes;
+    }
+
+    private void recountHeapBytes() {
+        long bytes = 0;
+        for (ByteBuffer value : this.rows.values())
+            bytes += heapSize(value);
+        this.heapBytes.set(bytes);
+    }
+
+    public Stats stats() {
+        return new Stats(this.heapHits.sum(), this.diskReads.sum(), this.evictions.sum(), this.heapBytes.get());
+    }
+
+    /**
+     * Counters of the two tiers: values newer than the snapshot live on heap, up to {@code db.cache.max_bytes},
+     * everything else is read from the memory mapped snapshot and paged in by the OS on first access.
+     */
+    public static class Stats {
+        public final long heapHits;
+        public final long diskReads;
+        public final long evictions;
+        public final long heapBytes;
+
+        Stats(long heapHits, long diskReads, long evictions, long heapBytes) {
+            this.heapHits = heapHits;
+            this.diskReads = diskReads;
+            this.evictions = evictions;
+            this.heapBytes = heapBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("heapHits=%d diskReads=%d evictions=%d heapBytes=%d", this.heapHits, this.diskReads,
+                    this.evictions, this.heapBytes);
+        }
+    }
+
+    /**
+     * Stops the background commits after syncing whatever is still buffered.
+     */
+    public void close() {
+        FLUSHER.unregister(this);
+        List<CompletableFuture<Void>> durable;
+        Throwable failure = null;
+        synchronized (this.log) {
+            durable = this.waiting;
+            this.waiting = new ArrayList<>();
+            try {
+                this.log.close();
+            } catch (IOException e) {
+                logger.error("Exception in closing {}", this.namespace, e);
+                failure = e;
             }
         }
+        for (CompletableFuture<Void> future : durable) {
+            if (failure == null)
+                future.complete(null);
+            else
+                future.completeExceptionally(failure);
+        }
     }
 }
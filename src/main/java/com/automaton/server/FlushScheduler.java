@@ -0,0 +1,48 @@
+package com.automaton.server;
+
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.collect.Sets;
+
+/**
+ * Group commits every registered {@link FileBasedDB} namespace on a single thread.
+ *
+ * Commits run on a fixed interval, or right away when a writer asks for fsync durability. Writers arriving while a
+ * commit is running share the next one, so a burst of durable writes costs one sync per namespace.
+ */
+class FlushScheduler {
+    private final ScheduledExecutorService executor;
+    private final Set<FileBasedDB> namespaces = Sets.newConcurrentHashSet();
+    private final AtomicBoolean commitQueued = new AtomicBoolean(false);
+
+    FlushScheduler(ScheduledExecutorService executor, long intervalMillis) {
+        this.executor = executor;
+        executor.scheduleWithFixedDelay(this::commit, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void register(FileBasedDB db) {
+        this.namespaces.add(db);
+    }
+
+    void unregister(FileBasedDB db) {
+        this.namespaces.remove(db);
+    }
+
+    /**
+     * Queues a commit unless one is already waiting to start.
+     */
+    void requestCommit() {
+        if (this.commitQueued.compareAndSet(false, true))
+            this.executor.execute(this::commit);
+    }
+
+    private void commit() {
+        // Cleared first, writes that show up while the namespaces are synced queue the next commit.
+        this.commitQueued.set(false);
+        for (FileBasedDB db : this.namespaces)
+            db.commit();
+    }
+}
@@ -0,0 +1,266 @@
+package com.automaton.server;
+
+import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.*;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Versioned snapshot of a {@link FileBasedDB} namespace.
+ *
+ * <pre>
+ * header  [int magic][short version][short flags][int count][long lastSegment][long indexOffset][int crc]
+ * values  value bytes back to back, deflated as one stream when flags has DEFLATE set
+ * index   count x [short sharedPrefix][short suffixLength][suffix utf-8][long valueOffset][int valueLength][int valueCrc]
+ * trailer [int indexCrc]
+ * </pre>
+ *
+ * Keys are written in order and share their leading bytes with the previous key, version 1 files stored every key in
+ * full. Value offsets count from the start of the file as if the values were stored raw.
+ *
+ * A raw file is mapped read only and values are handed out as slices of the mapping, so opening a namespace only walks
+ * the index. A deflated file is inflated once onto the heap, where its values count like any other heap value.
+ * Snapshots are written to a temp file and renamed into place.
+ */
+class SnapshotFile {
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotFile.class);
+
+    static final int MAGIC = 0x41444253;
+    static final short VERSION = 2;
+    static final short DEFLATE = 1;
+    static final int HEADER_SIZE = 32;
+
+    interface Visitor {
+        void put(String key, ByteBuffer value);
+    }
+
+    private SnapshotFile() {
+    }
+
+    static boolean isSnapshot(File file) throws IOException {
+        if (file.length() < HEADER_SIZE)
+            return false;
+        try (DataInputStream stream = new DataInputStream(new FileInputStream(file))) {
+            return stream.readInt() == MAGIC;
+        }
+    }
+
+    /**
+     * Maps the snapshot and hands every value to the visitor as a read only slice, of the mapping for a raw file and
+     * of a heap buffer for a deflated one.
+     *
+     * @return the last log segment already folded in the snapshot.
+     */
+    static long read(File file, Visitor visitor) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        CRC32 crc = new CRC32();
+        ByteBuffer header = slice(buffer, 0, HEADER_SIZE - 4);
+        crc.update(header);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(HEADER_SIZE - 4) != (int) crc.getValue())
+            throw new IOException("Corrupted snapshot header in " + file);
+        short version = buffer.getShort(4);
+        if (version != 1 && version != VERSION)
+            throw new IOException("Unsupported snapshot version " + version + " in " + file);
+        short flags = buffer.getShort(6);
+        int count = buffer.getInt(8);
+        long lastSegment = buffer.getLong(12);
+        int indexOffset = (int) buffer.getLong(20);
+
+        int indexEnd = buffer.capacity() - 4;
+        crc.reset();
+        crc.update(slice(buffer, indexOffset, indexEnd - indexOffset));
+        if (buffer.getInt(indexEnd) != (int) crc.getValue())
+            throw new IOException("Corrupted snapshot index in " + file);
+
+        String[] keys = new String[count];
+        int[] offsets = new int[count];
+        int[] lengths = new int[count];
+        int[] crcs = new int[count];
+        ByteBuffer index = slice(buffer, indexOffset, indexEnd - indexOffset);
+        byte[] key = new byte[256];
+        int valuesEnd = HEADER_SIZE;
+        for (int i = 0; i < count; i++) {
+            int shared = version == 1 ? 0 : index.getShort() & 0xFFFF;
+            int suffix = index.getShort() & 0xFFFF;
+            if (key.length < shared + suffix)
+                key = Arrays.copyOf(key, shared + suffix);
+            index.get(key, shared, suffix);
+            keys[i] = new String(key, 0, shared + suffix, StandardCharsets.UTF_8);
+            offsets[i] = (int) index.getLong();
+            lengths[i] = index.getInt();
+            crcs[i] = index.getInt();
+            valuesEnd = Math.max(valuesEnd, offsets[i] + lengths[i]);
+        }
+
+        ByteBuffer values = buffer;
+        if ((flags & DEFLATE) != 0) {
+            values = ByteBuffer.allocate(valuesEnd);
+            ((Buffer) values).position(HEADER_SIZE);
+            inflate(slice(buffer, HEADER_SIZE, indexOffset - HEADER_SIZE), values);
+            ((Buffer) values).clear();
+        }
+
+        for (int i = 0; i < count; i++) {
+            ByteBuffer value = slice(values, offsets[i], lengths[i]);
+            crc.reset();
+            crc.update(value.duplicate());
+            if ((int) crc.getValue() != crcs[i]) {
+                logger.error("Skipping corrupted value for {} in {}", keys[i], file);
+                continue;
+            }
+            visitor.put(keys[i], value.asReadOnlyBuffer());
+        }
+        return lastSegment;
+    }
+
+    private static void inflate(ByteBuffer compressed, ByteBuffer target) throws IOException {
+        Inflater inflater = new Inflater();
+        byte[] input = new byte[64 * 1024];
+        byte[] output = new byte[64 * 1024];
+        try {
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    if (!compressed.hasRemaining())
+                        throw new EOFException("Truncated snapshot values");
+                    int length = Math.min(input.length, compressed.remaining());
+                    compressed.get(input, 0, length);
+                    inflater.setInput(input, 0, length);
+                }
+                int length = inflater.inflate(output);
+                if (length > target.remaining())
+                    throw new IOException("Snapshot values larger than indexed");
+                target.put(output, 0, length);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted snapshot values", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Writes the rows next to the target and atomically renames the result over it.
+     */
+    static void write(File file, Map<String, ByteBuffer> rows, long lastSegment, boolean deflate)
+            throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            CRC32 crc = new CRC32();
+            ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+            DataOutputStream index = new DataOutputStream(indexBytes);
+            int count = 0;
+
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+            Deflater deflater = deflate ? new Deflater(Deflater.BEST_SPEED) : null;
+            OutputStream values = deflate ? new DeflaterOutputStream(out, deflater, 8192) : out;
+            channel.position(HEADER_SIZE);
+            long offset = HEADER_SIZE;
+            byte[] chunk = new byte[8192];
+            byte[] previous = new byte[0];
+            for (Map.Entry<String, ByteBuffer> entry : rows.entrySet()) {
+                ByteBuffer value = entry.getValue().duplicate();
+                byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                int shared = sharedPrefix(previous, key);
+                previous = key;
+                crc.reset();
+                crc.update(value.duplicate());
+                index.writeShort(shared);
+                index.writeShort(key.length - shared);
+                index.write(key, shared, key.length - shared);
+                index.writeLong(offset);
+                index.writeInt(value.remaining());
+                index.writeInt((int) crc.getValue());
+                offset += value.remaining();
+                count++;
+                while (value.hasRemaining()) {
+                    int length = Math.min(chunk.length, value.remaining());
+                    value.get(chunk, 0, length);
+                    values.write(chunk, 0, length);
+                }
+            }
+            if (deflate) {
+                ((DeflaterOutputStream) values).finish();
+                deflater.end();
+            }
+            out.flush();
+            long indexOffset = channel.position();
+
+            byte[] indexArray = indexBytes.toByteArray();
+            crc.reset();
+            crc.update(indexArray, 0, indexArray.length);
+            out.write(indexArray);
+            new DataOutputStream(out).writeInt((int) crc.getValue());
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putShort(VERSION).putShort(deflate ? DEFLATE : 0).putInt(count)
+                    .putLong(lastSegment).putLong(indexOffset);
+            crc.reset();
+            crc.update(header.array(), 0, HEADER_SIZE - 4);
+            header.putInt((int) crc.getValue());
+            ((Buffer) header).flip();
+            while (header.hasRemaining())
+                channel.write(header, HEADER_SIZE - header.remaining());
+            channel.force(true);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory(file.getParentFile());
+    }
+
+    /**
+     * Reads the original data.db layout, a plain sequence of [utf key][int length][value].
+     */
+    static void readLegacy(File file, Visitor visitor) throws IOException {
+        try (DataInputStream stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                String key;
+                try {
+                    key = stream.readUTF();
+                } catch (EOFException e) {
+                    return;
+                }
+                byte[] bytes = new byte[stream.readInt()];
+                stream.readFully(bytes);
+                visitor.put(key, ByteBuffer.wrap(bytes));
+            }
+        }
+    }
+
+    private static int sharedPrefix(byte[] previous, byte[] key) {
+        int max = Math.min(Math.min(previous.length, key.length), 0xFFFF);
+        int shared = 0;
+        while (shared < max && previous[shared] == key[shared])
+            shared++;
+        return shared;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer duplicate = buffer.duplicate();
+        // Through Buffer, so the calls link against Java 8 as well as the covariant overrides of Java 9 and later.
+        ((Buffer) duplicate).position(offset).limit(offset + length);
+        return duplicate.slice();
+    }
+
+    private static void syncDirectory(File directory) {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not every platform allows opening a directory, the rename is still atomic.
+            logger.debug("Could not sync {}", directory, e);
+        }
+    }
+}
@@ -1,84 +1,311 @@
 package com.automaton.server;
 
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.automaton.characteristics.AbstractCharacteristic;
+import com.automaton.characteristics.DevicePool;
+import com.automaton.characteristics.EventPolicy;
 import com.automaton.characteristics.EventableCharacteristic;
+import com.automaton.history.HistoryStore;
+import com.automaton.history.TimeSeries;
 import com.automaton.http.*;
 
+/**
+ * Subscriptions keyed by (aid, iid), each holding a copy-on-write array of connections. Publishing reads the array
+ * without any lock; subscribing and unsubscribing swap it with compare-and-set. The characteristic's own subscribe
+ * and unsubscribe are called outside of all of that, see {@link #reconcile(Subscription)}.
+ *
+ * Characteristics {@link #track(int, int, EventableCharacteristic) tracked} for their history stay subscribed with
+ * the driver without any connection, every change they report is recorded whatever the event policy makes of it.
+ */
 public class SubscriptionManager {
     private static final Logger LOGGER = LoggerFactory.getLogger(SubscriptionManager.class);
+    private static final HomekitConnection[] NONE = new HomekitConnection[0];
 
-    private final ConcurrentMap<EventableCharacteristic, Set<HomekitConnection>> subscriptions = new ConcurrentHashMap<>();
-    private final ConcurrentMap<HomekitConnection, Set<EventableCharacteristic>> reverse = new ConcurrentHashMap<>();
+    private final HistoryStore history;
+    private final ConcurrentMap<Long, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<HomekitConnection, Set<Long>> reverse = new ConcurrentHashMap<>();
 
-    public synchronized void addSubscription(int aid, int iid, EventableCharacteristic characteristic,
+    public SubscriptionManager() {
+        this(HistoryStore.INSTANCE);
+    }
+
+    public SubscriptionManager(HistoryStore history) {
+        this.history = history;
+    }
+
+    public void addSubscription(int aid, int iid, EventableCharacteristic characteristic,
             HomekitConnection connection) {
-        synchronized (this) {
-            if (!subscriptions.containsKey(characteristic)) {
-                subscriptions.putIfAbsent(characteristic, newSet());
-            }
-            this.subscriptions.get(characteristic).add(connection);
-            if (subscriptions.get(characteristic).size() == 1) {
-                characteristic.subscribe(() -> publish(aid, iid, characteristic));
+        Subscription subscription = subscription(aid, iid, characteristic);
+        reverse.computeIfAbsent(connection, c -> ConcurrentHashMap.newKeySet()).add(key(aid, iid));
+        if (subscription.add(connection))
+            reconcile(subscription);
+        LOGGER.info("Added subscription to " + characteristic.getClass() + " for " + connection.hashCode());
+        characteristic.readValue().whenComplete((value, t) -> {
+            if (t != null)
+                LOGGER.error("Could not send initial state in response to subscribe event", t);
+            else
+                send(new CharacteristicEvent(aid, iid, characteristic, value), connection);
+        });
+    }
+
+    public void removeSubscription(int aid, int iid, HomekitConnection connection) {
+        Set<Long> keys = reverse.get(connection);
+        if (keys != null)
+            keys.remove(key(aid, iid));
+        Subscription subscription = subscriptions.get(key(aid, iid));
+        if (subscription != null && subscription.remove(connection)) {
+            reconcile(subscription);
+            LOGGER.info("Removed subscription to " + subscription.characteristic.getClass() + " for "
+                    + connection.hashCode());
+        }
+    }
+
+    /**
+     * Records every numeric change of the characteristic in the history, whether or not a controller is subscribed.
+     */
+    public void track(int aid, int iid, EventableCharacteristic characteristic) {
+        Subscription subscription = subscription(aid, iid, characteristic);
+        subscription.series = this.history.series(aid, iid);
+        subscription.tracked = true;
+        reconcile(subscription);
+    }
+
+    /**
+     * Stops tracking the characteristics of a removed accessory.
+     */
+    public void untrack(int aid) {
+        for (Subscription subscription : subscriptions.values()) {
+            if (subscription.aid == aid && subscription.tracked) {
+                subscription.tracked = false;
+                reconcile(subscription);
             }
+        }
+    }
 
-            if (!reverse.containsKey(connection))
-                reverse.putIfAbsent(connection, newSet());
-            reverse.get(connection).add(characteristic);
-            LOGGER.info("Added subscription to " + characteristic.getClass() + " for " + connection.hashCode());
+    public void removeConnection(HomekitConnection connection) {
+        Set<Long> keys = reverse.remove(connection);
+        if (keys == null)
+            return;
+        for (Long key : keys) {
+            Subscription subscription = subscriptions.get(key);
+            if (subscription != null && subscription.remove(connection))
+                reconcile(subscription);
         }
+    }
+
+    public void publish(int accessoryId, int iid, EventableCharacteristic changed) {
+        Subscription subscription = subscriptions.get(key(accessoryId, iid));
+        if (subscription != null && subscription.characteristic == changed)
+            publish(subscription, true);
+    }
+
+    /**
+     * Passes the change through the characteristic's {@link EventPolicy}. The time limits are checked before the
+     * device is read, a change they hold back schedules one trailing publish so the last value still goes out; that
+     * one only sends. A tracked change is recorded apart from all of that, see {@link #record(Subscription)}.
+     */
+    private void publish(Subscription subscription, boolean record) {
+        EventableCharacteristic changed = subscription.characteristic;
+        if (changed instanceof AbstractCharacteristic)
+            ((AbstractCharacteristic<?>) changed).invalidate();
+        if (record && subscription.tracked)
+            record(subscription);
+        HomekitConnection[] subscribers = subscription.subscribers.get();
+        if (subscribers.length == 0)
+            return;
+        EventPolicy.Gate gate = subscription.gate;
+        if (gate != null && holdBack(subscription, gate.delay(System.nanoTime())))
+            return;
         try {
-            connection.outOfBand(new EventController().getMessage(aid, iid, characteristic));
+            Object value = changed.readValue().join();
+            boolean numeric = value instanceof Number;
+            if (gate != null) {
+                long now = System.nanoTime();
+                if (!gate.accept(numeric, numeric ? ((Number) value).doubleValue() : 0, now)) {
+                    holdBack(subscription, gate.delay(now));
+                    return;
+                }
+            }
+            // Encoded once, each connection batches the event with its other pending changes.
+            CharacteristicEvent event = new CharacteristicEvent(subscription.aid, subscription.iid, changed, value);
+            LOGGER.info("Publishing changes for " + subscription.aid);
+            send(event, subscribers);
         } catch (Exception e) {
-            LOGGER.error("Could not send initial state in response to subscribe event", e);
+            LOGGER.error("Failed to create new event message", e);
+        }
+    }
+
+    /**
+     * Reads the value for the history without waiting for it. Changes reported while a read is out are folded into
+     * one more read once it is back, so the last value is always recorded and a chatty driver never has more than one
+     * read out.
+     */
+    private void record(Subscription subscription) {
+        if (subscription.recording.getAndIncrement() == 0)
+            sample(subscription);
+    }
+
+    private void sample(Subscription subscription) {
+        int changes = subscription.recording.get();
+        subscription.characteristic.readValue().whenComplete((value, t) -> {
+            if (t != null)
+                LOGGER.warn("Could not read {} for its history", subscription.characteristic.getClass(), t);
+            else if (value instanceof Number)
+                subscription.series.add(System.currentTimeMillis(), ((Number) value).doubleValue());
+            if (subscription.recording.addAndGet(-changes) != 0)
+                sample(subscription);
+        });
+    }
+
+    /**
+     * Hands the event to the connections, which take their own references, and releases the one it was created with.
+     */
+    private static void send(CharacteristicEvent event, HomekitConnection... connections) {
+        try {
+            for (HomekitConnection connection : connections)
+                connection.event(event);
+        } finally {
+            event.release();
         }
     }
 
-    public synchronized void removeSubscription(EventableCharacteristic characteristic, HomekitConnection connection) {
-        Set<HomekitConnection> subscriptions = this.subscriptions.get(characteristic);
-        if (subscriptions != null) {
-            subscriptions.remove(connection);
-            if (subscriptions.size() == 0) {
-                characteristic.unsubscribe();
+    /**
+     * @return false if the time limits let the change through now.
+     */
+    private boolean holdBack(Subscription subscription, long delayNanos) {
+        if (delayNanos <= 0)
+            return false;
+        if (subscription.trailing.compareAndSet(false, true))
+            DevicePool.later(subscription.republish, TimeUnit.NANOSECONDS.toMillis(delayNanos) + 1);
+        return true;
+    }
+
+    /**
+     * @return the subscription for the ids, a new one if the characteristic replaced the one subscribed before.
+     */
+    private Subscription subscription(int aid, int iid, EventableCharacteristic characteristic) {
+        Long key = key(aid, iid);
+        Subscription current = subscriptions.get(key);
+        while (current == null || current.characteristic != characteristic) {
+            Subscription created = new Subscription(aid, iid, characteristic);
+            if (current == null ? subscriptions.putIfAbsent(key, created) == null
+                    : subscriptions.replace(key, current, created)) {
+                if (current != null && current.tracked) {
+                    // The accessory was rebuilt, the characteristic it replaced is not tracked any more.
+                    current.tracked = false;
+                    reconcile(current);
+                }
+                return created;
             }
+            current = subscriptions.get(key);
         }
-        Set<EventableCharacteristic> reverse = this.reverse.get(connection);
-        if (reverse != null)
-            reverse.remove(characteristic);
-        LOGGER.info("Removed subscription to " + characteristic.getClass() + " for " + connection.hashCode());
+        return current;
     }
 
-    public synchronized void removeConnection(HomekitConnection connection) {
-        Set<EventableCharacteristic> characteristics = reverse.remove(connection);
-        if (characteristics == null)
+    /**
+     * Brings the characteristic's subscription in line with whether anyone is subscribed. Whichever thread finds no
+     * one else reconciling does the work, repeating it for changes made meanwhile, so the characteristic sees its
+     * subscribe and unsubscribe calls in order without any thread waiting for another.
+     */
+    private void reconcile(Subscription subscription) {
+        if (subscription.reconciling.getAndIncrement() != 0)
             return;
-        for (EventableCharacteristic characteristic : characteristics) {
-            Set<HomekitConnection> characteristicSubscriptions = subscriptions.get(characteristic);
-            characteristicSubscriptions.remove(connection);
-            if (characteristicSubscriptions.isEmpty()) {
-                characteristic.unsubscribe();
+        do {
+            boolean wanted = subscription.tracked || subscription.subscribers.get().length > 0;
+            if (wanted != subscription.subscribed) {
+                subscription.subscribed = wanted;
+                try {
+                    if (wanted)
+                        subscription.characteristic.subscribe(() -> publish(subscription, true));
+                    else
+                        subscription.characteristic.unsubscribe();
+                } catch (RuntimeException e) {
+                    LOGGER.error("Could not change subscription to " + subscription.characteristic.getClass(), e);
+                }
             }
-        }
+        } while (subscription.reconciling.decrementAndGet() != 0);
     }
 
-    private <T> Set<T> newSet() {
-        return Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private static long key(int aid, int iid) {
+        return (long) aid << 32 | iid & 0xFFFFFFFFL;
     }
 
-    public void publish(int accessoryId, int iid, EventableCharacteristic changed) {
-        try {
-            HttpResponse message = (new EventController()).getMessage(accessoryId, iid, changed);
-            LOGGER.info("Publishing changes for " + accessoryId);
-            for (HomekitConnection connection : subscriptions.get(changed))
-                connection.outOfBand(message);
-        } catch (Exception e) {
-            LOGGER.error("Failed to create new event message", e);
+    private class Subscription {
+        private final int aid;
+        private final int iid;
+        private final EventableCharacteristic characteristic;
+        private final AtomicReference<HomekitConnection[]> subscribers = new AtomicReference<>(NONE);
+        private final AtomicInteger reconciling = new AtomicInteger();
+        // Null when every change is published.
+        private final EventPolicy.Gate gate;
+        private final AtomicBoolean trailing = new AtomicBoolean();
+        private final Runnable republish = () -> {
+            trailing.set(false);
+            publish(this, false);
+        };
+        private volatile boolean tracked;
+        // Set before tracked, so a tracked subscription always has it.
+        private volatile TimeSeries series;
+        // Changes not yet covered by a history read, see record().
+        private final AtomicInteger recording = new AtomicInteger();
+        // Only touched by the thread reconciling, which the counter hands over with a happens-before edge.
+        private boolean subscribed;
+
+        Subscription(int aid, int iid, EventableCharacteristic characteristic) {
+            this.aid = aid;
+            this.iid = iid;
+            this.characteristic = characteristic;
+            EventPolicy policy = characteristic.getEventPolicy();
+            this.gate = policy.isAlways() ? null : policy.newGate();
+        }
+
+        /**
+         * @return false if the connection was already subscribed.
+         */
+        boolean add(HomekitConnection connection) {
+            while (true) {
+                HomekitConnection[] current = subscribers.get();
+                for (HomekitConnection subscriber : current) {
+                    if (subscriber == connection)
+                        return false;
+                }
+                HomekitConnection[] updated = Arrays.copyOf(current, current.length + 1);
+                updated[current.length] = connection;
+                if (subscribers.compareAndSet(current, updated))
+                    return true;
+            }
+        }
+
+        /**
+         * @return false if the connection was not subscribed.
+         */
+        boolean remove(HomekitConnection connection) {
+            while (true) {
+                HomekitConnection[] current = subscribers.get();
+                int index = -1;
+                for (int i = 0; i < current.length && index < 0; i++) {
+                    if (current[i] == connection)
+                        index = i;
+                }
+                if (index < 0)
+                    return false;
+                HomekitConnection[] updated = current.length == 1 ? NONE : new HomekitConnection[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, index);
+                System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+                if (subscribers.compareAndSet(current, updated))
+                    return true;
+            }
         }
     }
 }
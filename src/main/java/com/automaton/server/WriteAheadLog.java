@@ -0,0 +1,253 @@
+package com.automaton.server;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append only log of mutations for a {@link FileBasedDB} namespace, split in numbered segments.
+ *
+ * Every record is framed as [int length][int crc32][payload] so a torn write at the tail of a segment is detected on
+ * replay and cut off instead of poisoning the namespace.
+ */
+class WriteAheadLog implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    static final byte PUT = 1;
+    static final byte REMOVE = 2;
+    static final byte CLEAR = 3;
+    static final byte BATCH = 4;
+
+    private static final String PREFIX = "wal-";
+    private static final String SUFFIX = ".log";
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+    interface Visitor {
+        void put(String key, byte[] value);
+
+        void remove(String key);
+
+        void clear();
+    }
+
+    private final File directory;
+    private final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    private final DataOutputStream payloadStream = new DataOutputStream(payload);
+    private final CRC32 crc = new CRC32();
+
+    private long sequence;
+    private FileChannel channel;
+    private DataOutputStream out;
+    private long closedSegmentsSize;
+    private long segmentSize;
+
+    WriteAheadLog(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Replays every segment after {@code afterSequence} in order, cutting off anything after the first corrupted
+     * record of a segment. Must be called once before the log is appended to.
+     */
+    synchronized void replay(Visitor visitor, long afterSequence) throws IOException {
+        close();
+        this.closedSegmentsSize = 0;
+        this.sequence = Math.max(this.sequence, afterSequence);
+        for (File segment : segments()) {
+            if (sequenceOf(segment) <= afterSequence) {
+                // Already folded in the snapshot, the compaction died before dropping it.
+                segment.delete();
+                continue;
+            }
+            this.sequence = Math.max(this.sequence, sequenceOf(segment));
+            long valid = replay(segment, visitor);
+            if (valid == 0) {
+                segment.delete();
+                continue;
+            }
+            if (valid < segment.length()) {
+                logger.warn("Truncating {} from {} to {} bytes after a corrupted or partial record", segment,
+                        segment.length(), valid);
+                try (FileChannel truncate = FileChannel.open(segment.toPath(), StandardOpenOption.WRITE)) {
+                    truncate.truncate(valid);
+                }
+            }
+            this.closedSegmentsSize += valid;
+        }
+        openSegment(this.sequence + 1);
+    }
+
+    private long replay(File segment, Visitor visitor) throws IOException {
+        long valid = 0;
+        try (DataInputStream stream = new DataInputStream(new BufferedInputStream(new FileInputStream(segment)))) {
+            byte[] body = new byte[0];
+            while (true) {
+                int length;
+                int checksum;
+                try {
+                    length = stream.readInt();
+                    checksum = stream.readInt();
+                    if (length <= 0 || length > MAX_RECORD_SIZE)
+                        return valid;
+                    if (body.length < length)
+                        body = new byte[length];
+                    stream.readFully(body, 0, length);
+                } catch (EOFException e) {
+                    return valid;
+                }
+                this.crc.reset();
+                this.crc.update(body, 0, length);
+                if ((int) this.crc.getValue() != checksum)
+                    return valid;
+                apply(new DataInputStream(new ByteArrayInputStream(body, 0, length)), visitor);
+                valid += HEADER_SIZE + length;
+            }
+        }
+    }
+
+    private static void apply(DataInputStream record, Visitor visitor) throws IOException {
+        byte op = record.readByte();
+        switch (op) {
+        case PUT:
+            String key = record.readUTF();
+            byte[] value = new byte[record.readInt()];
+            record.readFully(value);
+            visitor.put(key, value);
+            break;
+        case REMOVE:
+            visitor.remove(record.readUTF());
+            break;
+        case CLEAR:
+            visitor.clear();
+            break;
+        case BATCH:
+            // Nested operations of a WriteBatch, the single checksum makes them visible all or nothing.
+            for (int count = record.readInt(); count > 0; count--)
+                apply(record, visitor);
+            break;
+        default:
+            throw new IOException("Unknown log operation " + op);
+        }
+    }
+
+    synchronized void append(byte op, String key, byte[] value) throws IOException {
+        this.payload.reset();
+        writeEntry(op, key, value);
+        writeRecord();
+    }
+
+    /**
+     * Appends every entry of the batch as a single record.
+     */
+    synchronized void append(WriteBatch batch) throws IOException {
+        this.payload.reset();
+        this.payloadStream.writeByte(BATCH);
+        this.payloadStream.writeInt(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            byte[] value = batch.value(i);
+            writeEntry(value == null ? REMOVE : PUT, batch.key(i), value);
+        }
+        writeRecord();
+    }
+
+    private void writeEntry(byte op, String key, byte[] value) throws IOException {
+        this.payloadStream.writeByte(op);
+        if (key != null)
+            this.payloadStream.writeUTF(key);
+        if (value != null) {
+            this.payloadStream.writeInt(value.length);
+            this.payloadStream.write(value);
+        }
+    }
+
+    private void writeRecord() throws IOException {
+        byte[] record = this.payload.toByteArray();
+        this.crc.reset();
+        this.crc.update(record, 0, record.length);
+        this.out.writeInt(record.length);
+        this.out.writeInt((int) this.crc.getValue());
+        this.out.write(record);
+        this.segmentSize += HEADER_SIZE + record.length;
+    }
+
+    /**
+     * Pushes buffered records to the OS and optionally forces them to the device.
+     */
+    synchronized void flush(boolean sync) throws IOException {
+        if (this.out == null)
+            return;
+        this.out.flush();
+        if (sync)
+            this.channel.force(false);
+    }
+
+    /**
+     * Seals the current segment and starts a new one.
+     *
+     * @return the sequence of the sealed segment, everything up to it can be dropped once it is part of a snapshot.
+     */
+    synchronized long roll() throws IOException {
+        long sealed = this.sequence;
+        flush(true);
+        this.out.close();
+        this.closedSegmentsSize += this.segmentSize;
+        openSegment(sealed + 1);
+        return sealed;
+    }
+
+    synchronized void deleteUpTo(long sequence) {
+        for (File segment : segments()) {
+            if (sequenceOf(segment) > sequence)
+                continue;
+            this.closedSegmentsSize -= segment.length();
+            if (!segment.delete())
+                logger.warn("Could not delete compacted log segment {}", segment);
+        }
+    }
+
+    /**
+     * Bytes held by the log, used to decide when it is worth compacting.
+     */
+    synchronized long size() {
+        return this.closedSegmentsSize + this.segmentSize;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.out != null) {
+            flush(true);
+            this.out.close();
+            this.out = null;
+        }
+    }
+
+    private void openSegment(long sequence) throws IOException {
+        this.sequence = sequence;
+        this.segmentSize = 0;
+        File file = new File(this.directory, String.format("%s%020d%s", PREFIX, sequence, SUFFIX));
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(this.channel)));
+    }
+
+    private List<File> segments() {
+        File[] files = this.directory.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (files == null)
+            return Collections.emptyList();
+        List<File> segments = new ArrayList<>(Arrays.asList(files));
+        segments.sort(Comparator.comparingLong(WriteAheadLog::sequenceOf));
+        return segments;
+    }
+
+    private static long sequenceOf(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+}
@@ -0,0 +1,70 @@
+package com.automaton.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Puts and removes applied to a {@link FileBasedDB} as one unit. The batch is logged as a single record, so a crash
+ * either keeps or drops all of it, and no other write can interleave with it.
+ */
+public class WriteBatch {
+    private final List<String> keys = new ArrayList<>();
+    // null marks a remove.
+    private final List<byte[]> values = new ArrayList<>();
+
+    /**
+     * The value is copied, the caller may reuse the array once this returns.
+     */
+    public WriteBatch put(String key, byte[] value) {
+        if (value == null)
+            throw new NullPointerException("value");
+        return putOwned(key, value.clone());
+    }
+
+    public WriteBatch put(String key, String value) {
+        return putOwned(key, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public <T> WriteBatch put(String key, T value, DBCodec<T> codec) throws IOException {
+        return putOwned(key, codec.encode(value));
+    }
+
+    public WriteBatch putInt(String key, int value) {
+        return putOwned(key, ByteBuffer.allocate(Integer.BYTES).putInt(0, value).array());
+    }
+
+    public WriteBatch putLong(String key, long value) {
+        return putOwned(key, ByteBuffer.allocate(Long.BYTES).putLong(0, value).array());
+    }
+
+    private WriteBatch putOwned(String key, byte[] value) {
+        this.keys.add(key);
+        this.values.add(value);
+        return this;
+    }
+
+    public WriteBatch remove(String key) {
+        this.keys.add(key);
+        this.values.add(null);
+        return this;
+    }
+
+    public int size() {
+        return this.keys.size();
+    }
+
+    public boolean isEmpty() {
+        return this.keys.isEmpty();
+    }
+
+    String key(int index) {
+        return this.keys.get(index);
+    }
+
+    byte[] value(int index) {
+        return this.values.get(index);
+    }
+}
@@ -0,0 +1,61 @@
+package com.automaton.characteristics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.*;
+
+import com.automaton.characteristics.CharacteristicStates.PowerState;
+import com.automaton.server.FileBasedDB;
+
+public class AbstractCharacteristicTest {
+    private File location;
+    private FileBasedDB db;
+    private CharacteristicStateStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        location = Files.createTempDirectory("automaton-db").toFile();
+        db = new FileBasedDB(location, "state");
+        store = new CharacteristicStateStore(db);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        db.close();
+        FileUtils.deleteDirectory(location);
+    }
+
+    @Test
+    public void testRestoredValueLastsUntilTheDeviceAnswers() throws Exception {
+        PowerState before = power(CompletableFuture.completedFuture(true));
+        before.restore(store, 2, 9);
+        Assert.assertEquals(true, before.readValue().get(5, TimeUnit.SECONDS));
+
+        // The lock was opened while the hub was down.
+        CompletableFuture<Boolean> device = new CompletableFuture<>();
+        PowerState after = power(device);
+        after.restore(store, 2, 9);
+        Assert.assertEquals(true, after.readValue().get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(true, after.readValue().get(5, TimeUnit.SECONDS));
+        device.complete(false);
+        // The answer arrives on a device thread.
+        Object value = true;
+        for (int i = 0; i < 500 && Boolean.TRUE.equals(value); i++) {
+            Thread.sleep(10);
+            value = after.readValue().get(5, TimeUnit.SECONDS);
+        }
+        Assert.assertEquals(false, value);
+    }
+
+    private static PowerState power(CompletableFuture<Boolean> value) {
+        return new PowerState(() -> value, v -> {
+        }, c -> {
+        }, () -> {
+        });
+    }
+}
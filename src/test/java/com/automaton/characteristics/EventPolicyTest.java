@@ -0,0 +1,67 @@
+package com.automaton.characteristics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.*;
+
+public class EventPolicyTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testMinInterval() {
+        EventPolicy.Gate gate = EventPolicy.ALWAYS.minInterval(5000).newGate();
+        Assert.assertTrue(gate.accept(true, 20, 0));
+        Assert.assertEquals(5 * SECOND, gate.delay(0));
+        Assert.assertFalse(gate.accept(true, 25, 4 * SECOND));
+        Assert.assertEquals(SECOND, gate.delay(4 * SECOND));
+        Assert.assertTrue(gate.accept(true, 25, 5 * SECOND));
+    }
+
+    @Test
+    public void testDeadband() {
+        EventPolicy.Gate gate = EventPolicy.ALWAYS.deadband(1, 0.1).newGate();
+        Assert.assertTrue(gate.accept(true, 100, 0));
+        // Ten percent of 100 is the larger threshold.
+        Assert.assertFalse(gate.accept(true, 109, 1));
+        Assert.assertFalse(gate.accept(true, 91, 2));
+        Assert.assertTrue(gate.accept(true, 111, 3));
+        Assert.assertTrue(gate.accept(true, 123, 4));
+        Assert.assertEquals(0, gate.delay(5));
+
+        gate = EventPolicy.ALWAYS.deadband(1, 0.1).newGate();
+        Assert.assertTrue(gate.accept(true, 2, 0));
+        // The absolute delta keeps small values from flapping.
+        Assert.assertFalse(gate.accept(true, 2.9, 1));
+        Assert.assertTrue(gate.accept(true, 3.1, 2));
+        // Non numeric values are not subject to the deadband.
+        Assert.assertTrue(gate.accept(false, 0, 3));
+        Assert.assertTrue(gate.accept(true, 3.1, 4));
+    }
+
+    @Test
+    public void testMaxRate() {
+        EventPolicy.Gate gate = EventPolicy.ALWAYS.maxRate(3, 60000).newGate();
+        Assert.assertTrue(gate.accept(true, 1, 0));
+        Assert.assertTrue(gate.accept(true, 2, 1));
+        Assert.assertTrue(gate.accept(true, 3, 2));
+        Assert.assertFalse(gate.accept(true, 4, 3));
+        // One event's share of the period refills a token.
+        long delay = gate.delay(3);
+        Assert.assertEquals(20 * SECOND, delay, SECOND / 1000);
+        Assert.assertTrue(gate.accept(true, 4, 3 + delay + 1));
+        Assert.assertFalse(gate.accept(true, 5, 3 + delay + 2));
+    }
+
+    @Test
+    public void testConfigured() {
+        System.setProperty("events.policy.PolicyTest.deadband_abs", "2.5");
+        EventPolicy policy = EventPolicy.configured("PolicyTest", EventPolicy.ALWAYS.minInterval(1000));
+        EventPolicy.Gate gate = policy.newGate();
+        Assert.assertTrue(gate.accept(true, 10, 0));
+        Assert.assertFalse(gate.accept(true, 20, SECOND / 2));
+        Assert.assertFalse(gate.accept(true, 12, SECOND));
+        Assert.assertTrue(gate.accept(true, 13, SECOND));
+        Assert.assertTrue(EventPolicy.ALWAYS.isAlways());
+        Assert.assertFalse(policy.isAlways());
+    }
+}
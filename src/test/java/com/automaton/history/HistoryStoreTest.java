@@ -0,0 +1,70 @@
+package com.automaton.history;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.automaton.history.HistoryStore.Resolution;
+
+public class HistoryStoreTest {
+    @Test
+    public void testRawSamplesRoundTrip() {
+        HistoryStore store = new HistoryStore(4);
+        Random random = new Random(42);
+        long[] times = new long[3000];
+        long time = 1500000000000L;
+        for (int i = 0; i < times.length; i++) {
+            // Mix of regular intervals, jitter and the odd large gap to hit every encoding width.
+            time += i % 100 == 0 ? random.nextInt(Integer.MAX_VALUE) : 1000 + random.nextInt(i % 3 == 0 ? 50 : 5000);
+            times[i] = time;
+            store.record(1, 10, time, i);
+        }
+
+        List<long[]> samples = new ArrayList<>();
+        Assert.assertTrue(store.query(1, 10, 0, Long.MAX_VALUE, (t, v) -> samples.add(new long[] { t, (long) v })));
+        Assert.assertEquals(times.length, samples.size());
+        for (int i = 0; i < times.length; i++) {
+            Assert.assertEquals(times[i], samples.get(i)[0]);
+            Assert.assertEquals(i, samples.get(i)[1]);
+        }
+        Assert.assertFalse(store.query(1, 11, 0, Long.MAX_VALUE, (t, v) -> {}));
+    }
+
+    @Test
+    public void testOldestChunkIsRecycled() {
+        HistoryStore store = new HistoryStore(2);
+        for (int i = 0; i < SampleChunk.CAPACITY * 3; i++)
+            store.record(1, 10, i * 1000L, i);
+
+        long[] first = { -1 };
+        int[] count = { 0 };
+        store.query(1, 10, 0, Long.MAX_VALUE, (t, v) -> {
+            if (count[0]++ == 0)
+                first[0] = (long) v;
+        });
+        Assert.assertEquals(SampleChunk.CAPACITY * 2, count[0]);
+        Assert.assertEquals(SampleChunk.CAPACITY, first[0]);
+    }
+
+    @Test
+    public void testRollups() {
+        HistoryStore store = new HistoryStore(2);
+        for (int i = 0; i < 180; i++)
+            store.record(1, 10, i * 1000L, i % 60);
+
+        List<double[]> minutes = new ArrayList<>();
+        store.query(1, 10, Resolution.MINUTE, 0, Long.MAX_VALUE,
+                (start, min, max, avg, count) -> minutes.add(new double[] { start, min, max, avg, count }));
+        Assert.assertEquals(3, minutes.size());
+        Assert.assertArrayEquals(new double[] { 60000, 0, 59, 29.5, 60 }, minutes.get(1), 0);
+
+        List<double[]> hours = new ArrayList<>();
+        store.query(1, 10, Resolution.HOUR, 0, Long.MAX_VALUE,
+                (start, min, max, avg, count) -> hours.add(new double[] { start, count }));
+        Assert.assertEquals(1, hours.size());
+        Assert.assertEquals(180, hours.get(0)[1], 0);
+    }
+}
@@ -0,0 +1,169 @@
+package com.automaton.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+
+import javax.json.*;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.*;
+
+import com.automaton.AbstractAccessoryService;
+import com.automaton.HomekitRegistry;
+import com.automaton.accessories.Accessory;
+import com.automaton.accessories.Switch;
+import com.automaton.accessories.TemperatureSensor;
+import com.automaton.characteristics.Characteristic;
+import com.automaton.characteristics.CharacteristicCallback;
+import com.automaton.characteristics.CharacteristicStateStore;
+import com.automaton.server.FileBasedDB;
+
+public class AccessoryControllerTest {
+    private File location;
+    private FileBasedDB db;
+    private HomekitRegistry registry;
+
+    @Before
+    public void setUp() throws IOException {
+        location = Files.createTempDirectory("automaton-db").toFile();
+        db = new FileBasedDB(location, "state");
+        registry = new HomekitRegistry("test", new CharacteristicStateStore(db));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        db.close();
+        FileUtils.deleteDirectory(location);
+    }
+
+    @Test
+    public void testListingMatchesObjectTree() throws Exception {
+        registry.add(new TestSwitch(2, true));
+        registry.add(new TestSensor(3, 21.5));
+        registry.reset();
+        Assert.assertEquals(expected(), body(new AccessoryController(registry).listing().join()));
+    }
+
+    @Test
+    public void testSingleAccessoryRebuild() throws Exception {
+        registry.add(new TestSwitch(2, true));
+        registry.reset();
+        AccessoryTemplate kept = registry.getTemplate(2);
+
+        registry.add(new TestSensor(3, 18));
+        registry.reset(registry.getAccessories().stream().filter(a -> a.getId() == 3).findFirst().get());
+        Assert.assertSame(kept, registry.getTemplate(2));
+        Assert.assertEquals(expected(), body(new AccessoryController(registry).listing().join()));
+
+        registry.remove(registry.getAccessories().stream().filter(a -> a.getId() == 2).findFirst().get());
+        Assert.assertNull(registry.getTemplate(2));
+        Assert.assertEquals(expected(), body(new AccessoryController(registry).listing().join()));
+    }
+
+    private static String body(HttpResponse response) {
+        ByteBuffer body = response.getBody();
+        return StandardCharsets.UTF_8.decode(body.duplicate()).toString();
+    }
+
+    /**
+     * The listing as it was built before the templates, straight from the characteristics' object trees.
+     */
+    private String expected() {
+        JsonArrayBuilder accessories = Json.createArrayBuilder();
+        for (Accessory accessory : registry.getAccessories()) {
+            JsonArrayBuilder services = Json.createArrayBuilder();
+            int iid = 0;
+            for (AbstractAccessoryService service : registry.getServices(accessory.getId())) {
+                JsonObjectBuilder json = Json.createObjectBuilder().add("iid", ++iid).add("type", service.getType());
+                JsonArrayBuilder characteristics = Json.createArrayBuilder();
+                for (Characteristic characteristic : service.getCharacteristics())
+                    characteristics.add(characteristic.toJson(++iid).join());
+                services.add(json.add("characteristics", characteristics));
+            }
+            accessories.add(Json.createObjectBuilder().add("aid", accessory.getId()).add("services", services));
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        Json.createWriter(baos).write(Json.createObjectBuilder().add("accessories", accessories).build());
+        return new String(baos.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static abstract class TestAccessory implements Accessory {
+        private final int id;
+
+        TestAccessory(int id) {
+            this.id = id;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getLabel() {
+            return "Test " + id;
+        }
+
+        public void identify() {
+        }
+
+        public String getSerialNumber() {
+            return "serial-" + id;
+        }
+
+        public String getModel() {
+            return "model";
+        }
+
+        public String getManufacturer() {
+            return "\"quoted\" maker";
+        }
+
+        public void subscribe(CharacteristicCallback callback) {
+        }
+
+        public void unsubscribe() {
+        }
+    }
+
+    private static class TestSwitch extends TestAccessory implements Switch {
+        private final boolean state;
+
+        TestSwitch(int id, boolean state) {
+            super(id);
+            this.state = state;
+        }
+
+        public CompletableFuture<Boolean> getSwitchState() {
+            return CompletableFuture.completedFuture(state);
+        }
+
+        public CompletableFuture<Void> setSwitchState(boolean state) {
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private static class TestSensor extends TestAccessory implements TemperatureSensor {
+        private final double temperature;
+
+        TestSensor(int id, double temperature) {
+            super(id);
+            this.temperature = temperature;
+        }
+
+        public CompletableFuture<Double> getCurrentTemperature() {
+            return CompletableFuture.completedFuture(temperature);
+        }
+
+        public double getMinimumTemperature() {
+            return -40;
+        }
+
+        public double getMaximumTemperature() {
+            return 100;
+        }
+    }
+}
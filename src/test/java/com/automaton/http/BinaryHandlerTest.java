@@ -0,0 +1,121 @@
+package com.automaton.http;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.*;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+public class BinaryHandlerTest {
+    private final Random random = new Random(13);
+    private HomekitConnection accessory;
+    private HomekitConnection controller;
+    private EmbeddedChannel channel;
+    private int frames;
+
+    @Before
+    public void setUp() throws Exception {
+        byte[] toAccessory = new byte[32];
+        byte[] toController = new byte[32];
+        random.nextBytes(toAccessory);
+        random.nextBytes(toController);
+        accessory = new HomekitConnection(null, null, null, null);
+        accessory.upgrade(toAccessory, toController);
+        controller = new HomekitConnection(null, null, null, null);
+        controller.upgrade(toController, toAccessory);
+        channel = new EmbeddedChannel(new HapFrameDecoder(accessory), new BinaryHandler(accessory));
+    }
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testPlainUntilTheControllerEncrypts() throws Exception {
+        channel.writeOutbound(Unpooled.wrappedBuffer(new byte[] { 1, 2, 3 }));
+        ByteBuf plain = channel.readOutbound();
+        Assert.assertEquals(Unpooled.wrappedBuffer(new byte[] { 1, 2, 3 }), plain);
+        plain.release();
+
+        startEncrypting();
+        byte[] response = plaintext(10);
+        Assert.assertArrayEquals(response, roundTrip(Unpooled.wrappedBuffer(response)));
+        Assert.assertEquals(1, frames);
+    }
+
+    @Test
+    public void testResponsesAreSplitIntoFrames() throws Exception {
+        startEncrypting();
+        for (int length : new int[] { 1, HapFrameDecoder.MAX_FRAME_LENGTH, HapFrameDecoder.MAX_FRAME_LENGTH + 1,
+                3 * HapFrameDecoder.MAX_FRAME_LENGTH + 7 }) {
+            frames = 0;
+            byte[] response = plaintext(length);
+            Assert.assertArrayEquals(response, roundTrip(Unpooled.wrappedBuffer(response)));
+            Assert.assertEquals((length + HapFrameDecoder.MAX_FRAME_LENGTH - 1) / HapFrameDecoder.MAX_FRAME_LENGTH,
+                    frames);
+        }
+    }
+
+    @Test
+    public void testResponseWithoutBackingArray() throws Exception {
+        startEncrypting();
+        byte[] response = plaintext(2 * HapFrameDecoder.MAX_FRAME_LENGTH + 5);
+        ByteBuf direct = Unpooled.directBuffer(response.length).writeBytes(response);
+        Assert.assertArrayEquals(response, roundTrip(direct));
+        // A composite of a slice at an offset.
+        byte[] padded = new byte[response.length + 3];
+        System.arraycopy(response, 0, padded, 3, response.length);
+        ByteBuf composite = Unpooled.wrappedBuffer(Unpooled.wrappedBuffer(padded, 3, 100),
+                Unpooled.wrappedBuffer(padded, 103, response.length - 100));
+        Assert.assertArrayEquals(response, roundTrip(composite));
+    }
+
+    /**
+     * Responses are only encrypted once the controller has sent an encrypted frame.
+     */
+    private void startEncrypting() throws Exception {
+        byte[] request = plaintext(20);
+        byte[] frame = new byte[2 + request.length + HapFrameDecoder.TAG_LENGTH];
+        controller.encryptFrame(request, 0, request.length, frame, 0);
+        channel.writeInbound(Unpooled.wrappedBuffer(frame));
+        ByteBuf decrypted = channel.readInbound();
+        Assert.assertEquals(Unpooled.wrappedBuffer(request), decrypted);
+        decrypted.release();
+    }
+
+    /**
+     * Writes the response through the handler and opens the frames the way the controller does.
+     */
+    private byte[] roundTrip(ByteBuf response) throws Exception {
+        channel.writeOutbound(response);
+        ByteBuf sealed = channel.readOutbound();
+        byte[] bytes = new byte[sealed.readableBytes()];
+        sealed.readBytes(bytes);
+        sealed.release();
+        Assert.assertNull(channel.readOutbound());
+
+        ByteArrayOutputStream plaintext = new ByteArrayOutputStream();
+        int offset = 0;
+        while (offset < bytes.length) {
+            int length = (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8;
+            Assert.assertTrue(length <= HapFrameDecoder.MAX_FRAME_LENGTH);
+            byte[] additionalData = Arrays.copyOfRange(bytes, offset, offset + 2);
+            controller.decryptFrame(bytes, offset + 2, length, additionalData);
+            plaintext.write(bytes, offset + 2, length);
+            offset += 2 + length + HapFrameDecoder.TAG_LENGTH;
+            frames++;
+        }
+        return plaintext.toByteArray();
+    }
+
+    private byte[] plaintext(int length) {
+        byte[] plaintext = new byte[length];
+        random.nextBytes(plaintext);
+        return plaintext;
+    }
+}
@@ -0,0 +1,287 @@
+package com.automaton.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+import javax.json.*;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.*;
+
+import com.automaton.HomekitRegistry;
+import com.automaton.accessories.Switch;
+import com.automaton.characteristics.Characteristic;
+import com.automaton.characteristics.CharacteristicCallback;
+import com.automaton.characteristics.CharacteristicStateStore;
+import com.automaton.characteristics.DevicePool;
+import com.automaton.characteristics.CharacteristicStates.PowerState;
+import com.automaton.server.FileBasedDB;
+import com.automaton.server.SubscriptionManager;
+
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+
+public class CharacteristicsControllerTest {
+    private File location;
+    private FileBasedDB db;
+    private HomekitRegistry registry;
+    private CharacteristicsController controller;
+
+    @Before
+    public void setUp() throws IOException {
+        location = Files.createTempDirectory("automaton-db").toFile();
+        db = new FileBasedDB(location, "state");
+        registry = new HomekitRegistry("test", new CharacteristicStateStore(db));
+        controller = new CharacteristicsController(registry, new SubscriptionManager());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        db.close();
+        FileUtils.deleteDirectory(location);
+    }
+
+    @Test
+    public void testWritesKeepOrderWithinAnAccessory() throws Exception {
+        TestSwitch light = new TestSwitch(2);
+        registry.add(light);
+        registry.reset();
+        int iid = powerState(2);
+
+        HttpResponse response = put(entry(2, iid, "true") + "," + entry(2, iid, "false") + "," + entry(2, iid, "true"));
+        Assert.assertEquals(204, response.getStatusCode());
+        Assert.assertEquals(Arrays.asList(true, false, true), light.written);
+    }
+
+    @Test
+    public void testAccessoriesAreWrittenConcurrently() throws Exception {
+        CountDownLatch both = new CountDownLatch(2);
+        TestSwitch first = new TestSwitch(2, both);
+        TestSwitch second = new TestSwitch(3, both);
+        registry.add(first);
+        registry.add(second);
+        registry.reset();
+
+        // Each write waits for the other one to have started, serial writes would both time out.
+        HttpResponse response = put(entry(2, powerState(2), "true") + "," + entry(3, powerState(3), "true"));
+        Assert.assertEquals(204, response.getStatusCode());
+        Assert.assertEquals(1, first.written.size());
+        Assert.assertEquals(1, second.written.size());
+    }
+
+    @Test
+    public void testFailuresAreReportedPerCharacteristic() throws Exception {
+        registry.add(new TestSwitch(2));
+        TestSwitch broken = new TestSwitch(3);
+        broken.failure = new IOException("Device offline");
+        registry.add(broken);
+        registry.reset();
+
+        HttpResponse response = put(entry(2, powerState(2), "true") + "," + entry(3, powerState(3), "true") + ","
+                + entry(2, 99, "true"));
+        Assert.assertEquals(207, response.getStatusCode());
+        JsonArray characteristics = Json.createReader(new StringReader(body(response))).readObject()
+                .getJsonArray("characteristics");
+        Assert.assertEquals(3, characteristics.size());
+        Assert.assertEquals(0, characteristics.getJsonObject(0).getInt("status"));
+        Assert.assertEquals(CharacteristicsController.STATUS_UNREACHABLE,
+                characteristics.getJsonObject(1).getInt("status"));
+        Assert.assertEquals(3, characteristics.getJsonObject(1).getInt("aid"));
+        Assert.assertEquals(CharacteristicsController.STATUS_NOT_FOUND,
+                characteristics.getJsonObject(2).getInt("status"));
+        Assert.assertEquals(99, characteristics.getJsonObject(2).getInt("iid"));
+    }
+
+    @Test
+    public void testReadFailuresAreReportedPerCharacteristic() throws Exception {
+        registry.add(new TestSwitch(2));
+        TestSwitch broken = new TestSwitch(3);
+        broken.failure = new IOException("Device offline");
+        registry.add(broken);
+        registry.reset();
+
+        JsonArray characteristics = get(2, 3);
+        Assert.assertEquals(false, characteristics.getJsonObject(0).getBoolean("value"));
+        Assert.assertEquals(0, characteristics.getJsonObject(0).getInt("status"));
+        Assert.assertFalse(characteristics.getJsonObject(1).containsKey("value"));
+        Assert.assertEquals(CharacteristicsController.STATUS_UNREACHABLE,
+                characteristics.getJsonObject(1).getInt("status"));
+
+        // A saturated pool is reported as busy rather than answered with a made up value.
+        CountDownLatch release = new CountDownLatch(1);
+        saturate(release);
+        // Idle workers may still be taking their first task off the queue.
+        Thread.sleep(100);
+        saturate(release);
+        try {
+            characteristics = get(2, 3);
+        } finally {
+            release.countDown();
+        }
+        Assert.assertEquals(CharacteristicsController.STATUS_BUSY, characteristics.getJsonObject(0).getInt("status"));
+        Assert.assertEquals(CharacteristicsController.STATUS_BUSY, characteristics.getJsonObject(1).getInt("status"));
+    }
+
+    @Test
+    public void testTimedOutReadsFallBackToTheLastValue() throws Exception {
+        registry.add(new TestSwitch(2));
+        TestSwitch answered = new TestSwitch(3);
+        TestSwitch silent = new TestSwitch(4);
+        silent.hang = true;
+        registry.add(answered);
+        registry.add(silent);
+        registry.reset();
+        Characteristic power = registry.getCharacteristics(3).get(powerState(3));
+        Assert.assertEquals(false, power.readValue().get(5, TimeUnit.SECONDS));
+        answered.hang = true;
+
+        JsonArray characteristics = get(2, 3, 4);
+        Assert.assertEquals(0, characteristics.getJsonObject(0).getInt("status"));
+        // Answered before, its last value stands in.
+        Assert.assertEquals(false, characteristics.getJsonObject(1).getBoolean("value"));
+        Assert.assertEquals(0, characteristics.getJsonObject(1).getInt("status"));
+        // Never answered, there is nothing to stand in.
+        Assert.assertFalse(characteristics.getJsonObject(2).containsKey("value"));
+        Assert.assertEquals(CharacteristicsController.STATUS_TIMED_OUT,
+                characteristics.getJsonObject(2).getInt("status"));
+    }
+
+    @Test
+    public void testStatusMapping() {
+        Assert.assertEquals(CharacteristicsController.STATUS_TIMED_OUT,
+                CharacteristicsController.status(new CompletionException(new TimeoutException())));
+        Assert.assertEquals(CharacteristicsController.STATUS_INVALID_VALUE,
+                CharacteristicsController.status(new IllegalArgumentException()));
+        Assert.assertEquals(CharacteristicsController.STATUS_BUSY,
+                CharacteristicsController.status(new RejectedExecutionException()));
+    }
+
+    private HttpResponse put(String entries) throws Exception {
+        String body = "{\"characteristics\":[" + entries + "]}";
+        DefaultFullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.PUT,
+                "/characteristics", Unpooled.copiedBuffer(body, StandardCharsets.UTF_8));
+        return controller.put(request, null).get(30, TimeUnit.SECONDS);
+    }
+
+    private static void saturate(CountDownLatch release) {
+        try {
+            while (true) {
+                DevicePool.EXECUTOR.execute(() -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+        } catch (RejectedExecutionException e) {
+            // Every thread is busy and the queue is full.
+        }
+    }
+
+    private JsonArray get(int... aids) throws Exception {
+        StringBuilder ids = new StringBuilder();
+        for (int aid : aids)
+            ids.append(ids.length() == 0 ? "" : ",").append(aid).append('.').append(powerState(aid));
+        DefaultFullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET,
+                "/characteristics?id=" + ids);
+        HttpResponse response = controller.get(request).get(30, TimeUnit.SECONDS);
+        Assert.assertEquals(207, response.getStatusCode());
+        return Json.createReader(new StringReader(body(response))).readObject().getJsonArray("characteristics");
+    }
+
+    private int powerState(int aid) {
+        for (Map.Entry<Integer, Characteristic> entry : registry.getCharacteristics(aid).entrySet()) {
+            if (entry.getValue() instanceof PowerState)
+                return entry.getKey();
+        }
+        throw new AssertionError("No power state for " + aid);
+    }
+
+    private static String entry(int aid, int iid, String value) {
+        return "{\"aid\":" + aid + ",\"iid\":" + iid + ",\"value\":" + value + "}";
+    }
+
+    private static String body(HttpResponse response) {
+        return StandardCharsets.UTF_8.decode(response.getBody().duplicate()).toString();
+    }
+
+    private static class TestSwitch implements Switch {
+        private final int id;
+        private final CountDownLatch together;
+        final List<Boolean> written = new CopyOnWriteArrayList<>();
+        volatile Exception failure;
+        // Reads never answer.
+        volatile boolean hang;
+
+        TestSwitch(int id) {
+            this(id, null);
+        }
+
+        TestSwitch(int id, CountDownLatch together) {
+            this.id = id;
+            this.together = together;
+        }
+
+        public CompletableFuture<Boolean> getSwitchState() {
+            CompletableFuture<Boolean> state = new CompletableFuture<>();
+            if (hang)
+                return state;
+            if (failure != null)
+                state.completeExceptionally(failure);
+            else
+                state.complete(false);
+            return state;
+        }
+
+        public CompletableFuture<Void> setSwitchState(boolean state) throws Exception {
+            if (failure != null)
+                throw failure;
+            if (together != null) {
+                together.countDown();
+                if (!together.await(5, TimeUnit.SECONDS))
+                    throw new TimeoutException("Writes did not run concurrently");
+            }
+            written.add(state);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getLabel() {
+            return "Switch " + id;
+        }
+
+        public void identify() {
+        }
+
+        public String getSerialNumber() {
+            return "serial-" + id;
+        }
+
+        public String getModel() {
+            return "model";
+        }
+
+        public String getManufacturer() {
+            return "maker";
+        }
+
+        public void subscribe(CharacteristicCallback callback) {
+        }
+
+        public void unsubscribe() {
+        }
+    }
+}
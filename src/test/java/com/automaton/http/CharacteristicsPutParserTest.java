@@ -0,0 +1,82 @@
+package com.automaton.http;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.json.*;
+
+import org.junit.*;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+public class CharacteristicsPutParserTest {
+
+    @Test
+    public void testMatchesDocument() throws Exception {
+        String body = "{ \"pid\": 7, \"characteristics\" : [\n"
+                + "  {\"aid\":2,\"iid\":10,\"value\":true},\n"
+                + "  {\"value\":-21.5e1,\"iid\":11,\"aid\":2,\"ev\":false},\n"
+                + "  {\"aid\":3,\"iid\":9,\"ev\":true,\"r\":{\"nested\":[1,{\"x\":\"}\"}]}},\n"
+                + "  {\"aid\":4,\"iid\":12,\"value\":\"caf\\u00e9 \\\"q\\\" \u2603\"},\n"
+                + "  {\"aid\":4,\"iid\":13,\"value\":12345678901234567890},\n"
+                + "  {\"aid\":5,\"iid\":14,\"value\":null,\"authData\":\"abc\"},\n"
+                + "  {\"a\\u0069d\":6,\"iid\":15,\"value\":0}\n"
+                + "] }";
+        List<String> parsed = new ArrayList<>();
+        CharacteristicsPutParser.parse(buffer(body), (aid, iid, value, ev) -> parsed.add(entry(aid, iid, value, ev)));
+
+        List<String> expected = new ArrayList<>();
+        for (JsonValue value : Json.createReader(new StringReader(body)).readObject().getJsonArray("characteristics")) {
+            JsonObject entry = (JsonObject) value;
+            expected.add(entry(entry.getInt("aid"), entry.getInt("iid"), entry.get("value"),
+                    entry.containsKey("ev") ? entry.getBoolean("ev") : null));
+        }
+        Assert.assertEquals(expected, parsed);
+    }
+
+    @Test
+    public void testNumbers() throws Exception {
+        List<JsonNumber> values = new ArrayList<>();
+        CharacteristicsPutParser.parse(buffer("{\"characteristics\":[{\"aid\":1,\"iid\":2,\"value\":-42},"
+                + "{\"aid\":1,\"iid\":2,\"value\":0.5}]}"), (aid, iid, value, ev) -> values.add((JsonNumber) value));
+        Assert.assertEquals(-42, values.get(0).intValueExact());
+        Assert.assertTrue(values.get(0).isIntegral());
+        Assert.assertEquals(0.5, values.get(1).doubleValue(), 0);
+        Assert.assertFalse(values.get(1).isIntegral());
+    }
+
+    @Test
+    public void testDoesNotMoveReaderIndex() throws Exception {
+        ByteBuf buffer = buffer("{\"characteristics\":[]}");
+        CharacteristicsPutParser.parse(buffer, (aid, iid, value, ev) -> Assert.fail());
+        Assert.assertEquals(0, buffer.readerIndex());
+    }
+
+    @Test
+    public void testRejectsMalformedBodies() throws Exception {
+        String[] bodies = { "", "{}", "[]", "{\"characteristics\":[{\"aid\":1}]}",
+                "{\"characteristics\":[{\"aid\":1,\"iid\":2,\"value\":tru}]}",
+                "{\"characteristics\":[{\"aid\":1,\"iid\":2,\"value\":\"open", "{\"characteristics\":[]} x",
+                "{\"characteristics\":[{\"aid\":1,\"iid\":2,\"ev\":1}]}" };
+        for (String body : bodies) {
+            try {
+                CharacteristicsPutParser.parse(buffer(body), (aid, iid, value, ev) -> {
+                });
+                Assert.fail("Parsed " + body);
+            } catch (JsonException expected) {
+            }
+        }
+    }
+
+    private static String entry(int aid, int iid, JsonValue value, Boolean ev) {
+        Object text = value instanceof JsonString ? ((JsonString) value).getString() : value;
+        return aid + "." + iid + " " + (value == null ? null : value.getValueType() + " " + text) + " " + ev;
+    }
+
+    private static ByteBuf buffer(String body) {
+        return Unpooled.copiedBuffer(body, StandardCharsets.UTF_8);
+    }
+}
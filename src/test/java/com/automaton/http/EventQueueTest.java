@@ -0,0 +1,150 @@
+package com.automaton.http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.*;
+
+import com.automaton.characteristics.Characteristic;
+import com.automaton.characteristics.CharacteristicStates.PowerState;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+public class EventQueueTest {
+    private final Characteristic power = new PowerState(() -> CompletableFuture.completedFuture(true), v -> {
+    }, c -> {
+    }, () -> {
+    });
+    private EmbeddedChannel channel;
+    private EventQueue events;
+
+    @Before
+    public void setUp() {
+        channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter() {
+            @Override
+            public void handlerAdded(ChannelHandlerContext ctx) {
+                events = new EventQueue(ctx);
+            }
+
+            @Override
+            public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+                events.writabilityChanged();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testCoalescesIntoOneMessage() throws Exception {
+        offer(2, 9, power, true);
+        offer(3, 10, power, true);
+        offer(2, 9, power, false);
+        Assert.assertNull(channel.readOutbound());
+
+        Thread.sleep(EventQueue.WINDOW + 50);
+        channel.runPendingTasks();
+        Assert.assertEquals("{\"characteristics\":[{\"aid\":2,\"iid\":9,\"value\":false},"
+                + "{\"aid\":3,\"iid\":10,\"value\":true}]}", read());
+        Assert.assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void testWaitsForWritability() throws Exception {
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+        offer(2, 9, power, true);
+        Thread.sleep(EventQueue.WINDOW + 50);
+        channel.runPendingTasks();
+        offer(2, 9, power, false);
+        Assert.assertNull(channel.readOutbound());
+
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, true);
+        channel.runPendingTasks();
+        Assert.assertEquals("{\"characteristics\":[{\"aid\":2,\"iid\":9,\"value\":false}]}", read());
+    }
+
+    @Test
+    public void testBurstGoesOutRightAway() throws Exception {
+        EventQueue.Stats before = EventQueue.stats();
+        for (int iid = 0; iid <= EventQueue.MAX_PENDING; iid++)
+            offer(2, iid, power, true);
+        // Without waiting for the window.
+        String body = read();
+        Assert.assertTrue(body.startsWith("{\"characteristics\":[{\"aid\":2,\"iid\":0,"));
+        Assert.assertTrue(body.contains("{\"aid\":2,\"iid\":" + EventQueue.MAX_PENDING + ",\"value\":true}"));
+        Assert.assertEquals(1, EventQueue.stats().sent - before.sent);
+        Assert.assertTrue(channel.isOpen());
+    }
+
+    @Test
+    public void testOverflowDisconnects() throws Exception {
+        EventQueue.Stats before = EventQueue.stats();
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+        for (int iid = 0; iid < EventQueue.MAX_PENDING; iid++)
+            offer(2, iid, power, true);
+        offer(2, 5, power, false);
+        Assert.assertEquals(1, EventQueue.stats().merged - before.merged);
+        Assert.assertTrue(channel.isOpen());
+
+        // One more characteristic than the queue holds, none of them is dropped on the quiet.
+        offer(2, EventQueue.MAX_PENDING, power, true);
+        Assert.assertFalse(channel.isOpen());
+        Assert.assertEquals(1, EventQueue.stats().disconnected - before.disconnected);
+        Assert.assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void testSharedFrameIsReleased() throws Exception {
+        CharacteristicEvent event = new CharacteristicEvent(2, 9, power, true);
+        events.offer(event);
+        Thread.sleep(EventQueue.WINDOW + 50);
+        channel.runPendingTasks();
+        Assert.assertEquals("{\"characteristics\":[{\"aid\":2,\"iid\":9,\"value\":true}]}", read());
+        Assert.assertTrue(event.release());
+    }
+
+    @Test
+    public void testFrameMatchesEncoder() {
+        CharacteristicEvent event = new CharacteristicEvent(2, 9, power, true);
+        byte[] body = "{\"characteristics\":[{\"aid\":2,\"iid\":9,\"value\":true}]}"
+                .getBytes(StandardCharsets.UTF_8);
+        EmbeddedChannel encoder = new EmbeddedChannel(new NettyHttpServer.AggregateResponseEncoder());
+        encoder.writeOutbound(HttpResponses.createResponse(new HttpResponses.EventResponse(body)));
+        ByteBuf expected = encoder.readOutbound();
+        ByteBuf frame = event.frame();
+        try {
+            Assert.assertEquals(expected.toString(StandardCharsets.UTF_8), frame.toString(StandardCharsets.UTF_8));
+        } finally {
+            expected.release();
+            frame.release();
+            event.release();
+            encoder.finishAndReleaseAll();
+        }
+    }
+
+    private void offer(int aid, int iid, Characteristic characteristic, Object value) {
+        CharacteristicEvent event = new CharacteristicEvent(aid, iid, characteristic, value);
+        events.offer(event);
+        event.release();
+    }
+
+    private String read() {
+        ByteBuf message = channel.readOutbound();
+        try {
+            String text = message.toString(StandardCharsets.UTF_8);
+            Assert.assertTrue(text.startsWith("EVENT/1.0 200 OK\r\n"));
+            int end = text.indexOf("\r\n\r\n");
+            String body = text.substring(end + 4);
+            Assert.assertTrue(text.substring(0, end).contains("Content-Length: " + body.length()));
+            return body;
+        } finally {
+            message.release();
+        }
+    }
+}
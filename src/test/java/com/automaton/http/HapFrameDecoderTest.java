@@ -0,0 +1,151 @@
+package com.automaton.http;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import org.junit.*;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.DecoderException;
+
+public class HapFrameDecoderTest {
+    private final Random random = new Random(11);
+    private HomekitConnection accessory;
+    private HomekitConnection controller;
+    private EmbeddedChannel channel;
+
+    @Before
+    public void setUp() {
+        byte[] toAccessory = new byte[32];
+        byte[] toController = new byte[32];
+        random.nextBytes(toAccessory);
+        random.nextBytes(toController);
+        accessory = new HomekitConnection(null, null, null, null);
+        accessory.upgrade(toAccessory, toController);
+        controller = new HomekitConnection(null, null, null, null);
+        controller.upgrade(toController, toAccessory);
+        channel = new EmbeddedChannel(new HapFrameDecoder(accessory));
+    }
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testFramesSplitAcrossReads() throws Exception {
+        byte[] request = plaintext(300);
+        byte[] sealed = seal(request);
+        // One byte at a time, the length itself arrives in two pieces.
+        for (byte b : sealed)
+            channel.writeInbound(Unpooled.wrappedBuffer(new byte[] { b }));
+        Assert.assertArrayEquals(request, readAll());
+    }
+
+    @Test
+    public void testSeveralFramesInOneRead() throws Exception {
+        byte[] request = plaintext(2500);
+        ByteArrayOutputStream sealed = new ByteArrayOutputStream();
+        sealed.write(seal(request));
+        byte[] next = plaintext(10);
+        sealed.write(seal(next));
+        channel.writeInbound(Unpooled.wrappedBuffer(sealed.toByteArray()));
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(request);
+        expected.write(next);
+        Assert.assertArrayEquals(expected.toByteArray(), readAll());
+    }
+
+    @Test
+    public void testFrameOfMaximumLength() throws Exception {
+        byte[] request = plaintext(HapFrameDecoder.MAX_FRAME_LENGTH);
+        byte[] sealed = seal(request);
+        Assert.assertEquals(2 + HapFrameDecoder.MAX_FRAME_LENGTH + HapFrameDecoder.TAG_LENGTH, sealed.length);
+        channel.writeInbound(Unpooled.wrappedBuffer(sealed));
+        ByteBuf frame = channel.readInbound();
+        Assert.assertEquals(HapFrameDecoder.MAX_FRAME_LENGTH, frame.readableBytes());
+        frame.release();
+    }
+
+    @Test
+    public void testOversizedLengthIsRejected() {
+        int length = HapFrameDecoder.MAX_FRAME_LENGTH + 1;
+        try {
+            channel.writeInbound(Unpooled.wrappedBuffer(new byte[] { (byte) length, (byte) (length >>> 8) }));
+            Assert.fail("Oversized frame accepted");
+        } catch (CorruptedFrameException e) {
+            // Before the rest of the frame was even waited for.
+            discard();
+        }
+    }
+
+    @Test
+    public void testTamperedFrameIsRejected() throws Exception {
+        byte[] sealed = seal(plaintext(100));
+        sealed[10] ^= 1;
+        try {
+            channel.writeInbound(Unpooled.wrappedBuffer(sealed));
+            Assert.fail("Tampered frame accepted");
+        } catch (DecoderException e) {
+            Assert.assertNull(channel.readInbound());
+            discard();
+        }
+    }
+
+    @Test
+    public void testLengthIsAuthenticated() throws Exception {
+        byte[] sealed = seal(plaintext(100));
+        // Claims four bytes less, the tag no longer matches the length it was sealed with.
+        sealed[0] -= 4;
+        try {
+            channel.writeInbound(Unpooled.wrappedBuffer(sealed));
+            Assert.fail("Altered length accepted");
+        } catch (DecoderException e) {
+            Assert.assertNull(channel.readInbound());
+            discard();
+        }
+    }
+
+    /**
+     * The connection is closed after a bad frame, the decoder must not see the rest again.
+     */
+    private void discard() {
+        channel.pipeline().remove(HapFrameDecoder.class);
+    }
+
+    private byte[] plaintext(int length) {
+        byte[] plaintext = new byte[length];
+        random.nextBytes(plaintext);
+        return plaintext;
+    }
+
+    /**
+     * Seals the bytes the way the controller does, in frames of at most {@link HapFrameDecoder#MAX_FRAME_LENGTH}.
+     */
+    private byte[] seal(byte[] plaintext) throws Exception {
+        ByteArrayOutputStream sealed = new ByteArrayOutputStream();
+        for (int offset = 0; offset < plaintext.length; offset += HapFrameDecoder.MAX_FRAME_LENGTH) {
+            int length = Math.min(HapFrameDecoder.MAX_FRAME_LENGTH, plaintext.length - offset);
+            byte[] frame = new byte[2 + length + HapFrameDecoder.TAG_LENGTH];
+            controller.encryptFrame(plaintext, offset, length, frame, 0);
+            sealed.write(frame);
+        }
+        return sealed.toByteArray();
+    }
+
+    private byte[] readAll() {
+        ByteArrayOutputStream plaintext = new ByteArrayOutputStream();
+        ByteBuf frame;
+        while ((frame = channel.readInbound()) != null) {
+            byte[] bytes = new byte[frame.readableBytes()];
+            frame.readBytes(bytes);
+            frame.release();
+            plaintext.write(bytes, 0, bytes.length);
+        }
+        return plaintext.toByteArray();
+    }
+}
@@ -0,0 +1,87 @@
+package com.automaton.http;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+import javax.json.*;
+
+import org.junit.*;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+public class HapJsonWriterTest {
+    private static final String[] STRINGS = { "", "plain", "quote \" and \\ backslash", "tab\tnew\nline\r\b\f",
+            "control \u0001\u001f\u007f", "caf\u00e9 \u2603 \ud83d\ude00", "/slash" };
+    private static final double[] DOUBLES = { 0, -0.0, 0.1, 21.5, 1e-7, 1e21, 100, -3.25, Double.MIN_VALUE,
+            Double.MAX_VALUE };
+    private static final long[] LONGS = { 0, 1, -1, 9, 10, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE,
+            Long.MIN_VALUE };
+
+    @Test
+    public void testScalarsMatchJsonWriter() {
+        JsonObjectBuilder expected = Json.createObjectBuilder();
+        HapJsonWriter writer = new HapJsonWriter(Unpooled.buffer()).startObject();
+        for (int i = 0; i < STRINGS.length; i++) {
+            expected.add("s" + i + STRINGS[i], STRINGS[i]);
+            writer.name("s" + i + STRINGS[i]).value(STRINGS[i]);
+        }
+        for (int i = 0; i < DOUBLES.length; i++) {
+            expected.add("d" + i, DOUBLES[i]);
+            writer.name("d" + i).value(DOUBLES[i]);
+        }
+        for (int i = 0; i < LONGS.length; i++) {
+            expected.add("l" + i, LONGS[i]);
+            writer.name("l" + i).value(LONGS[i]);
+        }
+        expected.add("i", 42).add("t", true).add("f", false).add("bd", new BigDecimal("1.50"))
+                .add("bi", new BigInteger("123456789012345678901234567890"));
+        writer.name("i").value(42).name("t").value(true).name("f").value(false).name("bd")
+                .value(new BigDecimal("1.50")).name("bi").value(new BigInteger("123456789012345678901234567890"));
+        writer.endObject();
+        Assert.assertEquals(write(expected.build()), read(writer.buffer()));
+    }
+
+    @Test
+    public void testNestingMatchesJsonWriter() {
+        JsonObject expected = Json.createObjectBuilder()
+                .add("characteristics", Json.createArrayBuilder()
+                        .add(Json.createObjectBuilder().add("value", 1).add("aid", 2).add("iid", 9))
+                        .add(Json.createObjectBuilder().add("aid", 3).add("iid", 10).add("status", -70402)))
+                .add("empty", Json.createArrayBuilder()).add("nested", Json.createObjectBuilder()
+                        .add("a", Json.createArrayBuilder().add(1).add("x").add(Json.createObjectBuilder())))
+                .build();
+        HapJsonWriter writer = new HapJsonWriter(Unpooled.buffer()).startObject().startArray("characteristics");
+        writer.startObject().name("value").value(1).name("aid").value(2).name("iid").value(9).endObject();
+        writer.startObject().name("aid").value(3).name("iid").value(10).name("status").value(-70402).endObject();
+        writer.endArray().startArray("empty").endArray();
+        writer.name("nested").startObject().startArray("a").value(1).value("x").startObject().endObject().endArray()
+                .endObject();
+        writer.endObject();
+        Assert.assertEquals(write(expected), read(writer.buffer()));
+    }
+
+    @Test
+    public void testSerializedMembers() {
+        HapJsonWriter writer = new HapJsonWriter(Unpooled.buffer()).startArray();
+        writer.startObject().members("\"iid\":1,\"type\":\"25\"".getBytes(StandardCharsets.UTF_8)).name("value")
+                .value(true).members(new byte[0]).members("\"maxValue\":100".getBytes(StandardCharsets.UTF_8))
+                .endObject();
+        writer.startObject().name("value").value(false).endObject();
+        writer.endArray();
+        Assert.assertEquals("[{\"iid\":1,\"type\":\"25\",\"value\":true,\"maxValue\":100},{\"value\":false}]",
+                read(writer.buffer()));
+    }
+
+    private static String write(JsonObject object) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        Json.createWriter(baos).write(object);
+        return new String(baos.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String read(ByteBuf buffer) {
+        return buffer.toString(StandardCharsets.UTF_8);
+    }
+}
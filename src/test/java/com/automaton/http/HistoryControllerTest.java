@@ -0,0 +1,65 @@
+package com.automaton.http;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.*;
+
+import com.automaton.history.HistoryStore;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+
+public class HistoryControllerTest {
+    private final HistoryStore history = new HistoryStore(4);
+    private final HistoryController controller = new HistoryController(history);
+
+    @Before
+    public void setUp() {
+        history.record(2, 10, 1000, 40.5);
+        history.record(2, 10, 2000, 41);
+    }
+
+    @Test
+    public void testRawSamples() throws Exception {
+        HttpResponse response = controller.get(request("/history?id=2.10&from=1500"));
+        Assert.assertEquals(200, response.getStatusCode());
+        Assert.assertEquals("{\"aid\":2,\"iid\":10,\"resolution\":\"raw\",\"samples\":[[2000,41.0]]}", body(response));
+    }
+
+    @Test
+    public void testRollups() throws Exception {
+        HttpResponse response = controller.get(request("/history?id=2.10&resolution=1m"));
+        Assert.assertEquals("{\"aid\":2,\"iid\":10,\"resolution\":\"1m\",\"samples\":[[0,40.5,41.0,40.75,2]]}",
+                body(response));
+    }
+
+    @Test
+    public void testBadRequests() throws Exception {
+        Assert.assertEquals(400, controller.get(request("/history?id=2.x")).getStatusCode());
+        Assert.assertEquals(400, controller.get(request("/history?id=2.10&resolution=2m")).getStatusCode());
+        Assert.assertEquals(400, controller.get(request("/history?id=2.10&from=yesterday")).getStatusCode());
+        Assert.assertEquals(404, controller.get(request("/history?id=2.11")).getStatusCode());
+    }
+
+    @Test
+    public void testServedToLocalToolsWithoutPairing() throws Exception {
+        HttpSession local = new HttpSession(null, null, null, null, true);
+        Assert.assertEquals(404, local.handleRequest(request("/history?id=9999.1")).join().getStatusCode());
+        Assert.assertEquals(400, local.handleRequest(request("/history?id=1.x")).join().getStatusCode());
+    }
+
+    private static DefaultFullHttpRequest request(String uri) {
+        return new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri);
+    }
+
+    private static String body(HttpResponse response) {
+        ByteBuf content = response.getContent();
+        try {
+            return content.toString(StandardCharsets.UTF_8);
+        } finally {
+            content.release();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.automaton.security;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.*;
+
+import com.automaton.server.FileBasedDB;
+
+public class AuthenticatorTest {
+    private static final String MAC = "3C:22:FB:1A:0E:57";
+
+    private File location;
+
+    @Before
+    public void setUp() throws IOException {
+        location = Files.createTempDirectory("automaton-db").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(location);
+    }
+
+    @Test
+    public void testLegacyIdentityIsKept() throws Exception {
+        // What older releases left behind: only the mac, the salt and the key were derived from it.
+        File namespace = new File(location, "auth-info");
+        namespace.mkdirs();
+        byte[] legacy = MAC.getBytes(StandardCharsets.UTF_8);
+        try (DataOutputStream stream = new DataOutputStream(new FileOutputStream(new File(namespace, "data.db")))) {
+            stream.writeUTF("mac-address");
+            stream.writeInt(legacy.length);
+            stream.write(legacy);
+        }
+
+        for (int boot = 0; boot < 2; boot++) {
+            FileBasedDB db = new FileBasedDB(location, "auth-info");
+            Authenticator.Identity identity = new Authenticator.Identity(db);
+            Assert.assertEquals(MAC, identity.mac);
+            Assert.assertEquals(new BigInteger(legacy), identity.salt);
+            Assert.assertArrayEquals(legacy, identity.privateKey);
+            Assert.assertArrayEquals(legacy, db.get("private-key"));
+            db.close();
+        }
+    }
+
+    @Test
+    public void testFirstBootIdentityIsStored() throws Exception {
+        FileBasedDB db = new FileBasedDB(location, "auth-info");
+        Authenticator.Identity generated = new Authenticator.Identity(db);
+        db.close();
+
+        FileBasedDB reopened = new FileBasedDB(location, "auth-info");
+        Authenticator.Identity identity = new Authenticator.Identity(reopened);
+        Assert.assertEquals(generated.mac, identity.mac);
+        Assert.assertEquals(generated.salt, identity.salt);
+        Assert.assertArrayEquals(generated.privateKey, identity.privateKey);
+        Assert.assertFalse(identity.mac.equals(new String(identity.privateKey, StandardCharsets.UTF_8)));
+        reopened.close();
+    }
+}
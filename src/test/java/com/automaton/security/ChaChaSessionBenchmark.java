@@ -0,0 +1,71 @@
+package com.automaton.security;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.util.Pack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sealing one HAP frame with each {@link AeadProvider} against a new {@link ChachaAlgorithm} per frame. Run with
+ * -prof gc to compare allocation per frame; the jdk case needs Java 11 or later.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChaChaSessionBenchmark {
+    @Param({ "64", "1024" })
+    public int length;
+
+    private final byte[] key = new byte[32];
+    private final byte[] additionalData = new byte[2];
+    private byte[] plaintext;
+    private byte[] sealed;
+    private AeadCipher session;
+    private AeadCipher jdk;
+    private long nonce;
+
+    @Setup
+    public void setup() {
+        new Random(1).nextBytes(this.key);
+        this.plaintext = new byte[this.length];
+        this.sealed = new byte[this.length + ChaChaSession.TAG_LENGTH];
+        this.additionalData[0] = (byte) this.length;
+        this.additionalData[1] = (byte) (this.length >>> 8);
+        this.session = AeadProvider.BOUNCYCASTLE.create(true, this.key);
+        if (AeadProvider.isJdkAvailable())
+            this.jdk = AeadProvider.JDK.create(true, this.key);
+    }
+
+    @Benchmark
+    public byte[] session() throws IOException {
+        this.session.seal(this.nonce++, this.additionalData, 0, 2, this.plaintext, 0, this.length, this.sealed, 0);
+        return this.sealed;
+    }
+
+    @Benchmark
+    public byte[] jdk() throws IOException {
+        this.jdk.seal(this.nonce++, this.additionalData, 0, 2, this.plaintext, 0, this.length, this.sealed, 0);
+        return this.sealed;
+    }
+
+    @Benchmark
+    public byte[] algorithmPerFrame() throws IOException {
+        return new ChachaAlgorithm(true, this.key, Pack.longToLittleEndian(this.nonce++)).encode(this.plaintext,
+                this.additionalData);
+    }
+}
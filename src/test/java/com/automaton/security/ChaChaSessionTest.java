@@ -0,0 +1,81 @@
+package com.automaton.security;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.bouncycastle.util.Pack;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class ChaChaSessionTest {
+    @Test
+    public void testMatchesChachaAlgorithm() throws IOException {
+        Random random = new Random(7);
+        byte[] key = new byte[32];
+        random.nextBytes(key);
+        ChaChaSession sealer = new ChaChaSession(true, key);
+        ChaChaSession opener = new ChaChaSession(false, key);
+        for (int nonce = 0; nonce < 20; nonce++) {
+            byte[] plaintext = new byte[random.nextInt(1025)];
+            random.nextBytes(plaintext);
+            byte[] additionalData = { (byte) plaintext.length, (byte) (plaintext.length >>> 8) };
+
+            byte[] expected = new ChachaAlgorithm(true, key, Pack.longToLittleEndian(nonce)).encode(plaintext,
+                    additionalData);
+            byte[] sealed = new byte[plaintext.length + ChaChaSession.TAG_LENGTH];
+            sealer.seal(nonce, additionalData, 0, 2, plaintext, 0, plaintext.length, sealed, 0);
+            Assert.assertArrayEquals(expected, sealed);
+
+            opener.open(nonce, additionalData, 0, 2, sealed, 0, plaintext.length, sealed, 0);
+            Assert.assertArrayEquals(plaintext, Arrays.copyOf(sealed, plaintext.length));
+        }
+    }
+
+    @Test
+    public void testBackendsAgree() throws IOException {
+        Assume.assumeTrue(AeadProvider.isJdkAvailable());
+        Random random = new Random(11);
+        byte[] key = new byte[32];
+        random.nextBytes(key);
+        AeadCipher[] sealers = { AeadProvider.BOUNCYCASTLE.create(true, key), AeadProvider.JDK.create(true, key) };
+        AeadCipher[] openers = { AeadProvider.BOUNCYCASTLE.create(false, key), AeadProvider.JDK.create(false, key) };
+        // Frame counters past 32 bits exercise the high nonce word.
+        long[] nonces = { 0, 1, 2, 1023, 0xFFFFFFFFL, 0x100000000L, Long.MAX_VALUE };
+        for (long nonce : nonces) {
+            byte[] plaintext = new byte[random.nextInt(1025)];
+            random.nextBytes(plaintext);
+            byte[] additionalData = { (byte) plaintext.length, (byte) (plaintext.length >>> 8) };
+
+            byte[][] sealed = new byte[sealers.length][plaintext.length + AeadCipher.TAG_LENGTH];
+            for (int i = 0; i < sealers.length; i++)
+                sealers[i].seal(nonce, additionalData, 0, 2, plaintext, 0, plaintext.length, sealed[i], 0);
+            Assert.assertArrayEquals(sealed[0], sealed[1]);
+
+            for (int i = 0; i < openers.length; i++) {
+                byte[] frame = sealed[(i + 1) % sealed.length].clone();
+                openers[i].open(nonce, additionalData, 0, 2, frame, 0, plaintext.length, frame, 0);
+                Assert.assertArrayEquals(plaintext, Arrays.copyOf(frame, plaintext.length));
+            }
+        }
+    }
+
+    @Test
+    public void testRejectsTamperedFrame() throws IOException {
+        byte[] key = new byte[32];
+        byte[] additionalData = { 10, 0 };
+        for (AeadProvider provider : AeadProvider.values()) {
+            if (provider == AeadProvider.JDK && !AeadProvider.isJdkAvailable())
+                continue;
+            byte[] frame = new byte[10 + AeadCipher.TAG_LENGTH];
+            provider.create(true, key).seal(0, additionalData, 0, 2, frame, 0, 10, frame, 0);
+            frame[3] ^= 1;
+            try {
+                provider.create(false, key).open(0, additionalData, 0, 2, frame, 0, 10, frame, 0);
+                Assert.fail(provider + " accepted a tampered frame");
+            } catch (IOException expected) {
+            }
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.automaton.server;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.*;
+
+import com.automaton.server.FileBasedDB.Durability;
+import com.google.common.base.Charsets;
+
+public class FileBasedDBTest {
+    private File location;
+
+    @Before
+    public void setUp() throws IOException {
+        location = Files.createTempDirectory("automaton-db").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(location);
+    }
+
+    @Test
+    public void testReplayAfterRestart() {
+        FileBasedDB db = new FileBasedDB(location, "test");
+        db.put("a", "1");
+        db.put("b", "2");
+        db.remove("a");
+        db.putIfAbsent("c", 3);
+        db.close();
+
+        FileBasedDB reopened = new FileBasedDB(location, "test");
+        Assert.assertNull(reopened.get("a"));
+        Assert.assertEquals("2", new String(reopened.get("b"), Charsets.UTF_8));
+        Assert.assertEquals(3, reopened.putIfAbsent("c", 4));
+        Assert.assertEquals(2, reopened.count());
+        reopened.close();
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        FileBasedDB db = new FileBasedDB(location, "test");
+        for (int i = 0; i < 100; i++)
+            db.put("key", "value" + i);
+        db.compact();
+        db.put("other", "x");
+        db.close();
+
+        File[] segments = new File(location, "test").listFiles((dir, name) -> name.endsWith(".log"));
+        Assert.assertEquals(1, segments.length);
+
+        FileBasedDB reopened = new FileBasedDB(location, "test");
+        Assert.assertEquals("value99", new String(reopened.get("key"), Charsets.UTF_8));
+        Assert.assertEquals("x", new String(reopened.get("other"), Charsets.UTF_8));
+        reopened.close();
+    }
+
+    @Test
+    public void testTornTailIsDropped() throws IOException {
+        FileBasedDB db = new FileBasedDB(location, "test");
+        db.put("a", "1");
+        db.put("b", "2");
+        db.close();
+
+        File segment = new File(location, "test").listFiles((dir, name) -> name.endsWith(".log"))[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        FileBasedDB reopened = new FileBasedDB(location, "test");
+        Assert.assertEquals("1", new String(reopened.get("a"), Charsets.UTF_8));
+        Assert.assertNull(reopened.get("b"));
+        reopened.put("b", "3");
+        reopened.close();
+
+        FileBasedDB again = new FileBasedDB(location, "test");
+        Assert.assertEquals("3", new String(again.get("b"), Charsets.UTF_8));
+        again.close();
+    }
+
+    @Test
+    public void testSnapshotIsMappedOnLoad() throws IOException {
+        FileBasedDB db = new FileBasedDB(location, "test");
+        db.put("a", "1");
+        db.put("b", "2");
+        db.compact();
+        db.remove("a");
+        db.close();
+
+        File dataFile = new File(new File(location, "test"), "data.db");
+        Assert.assertTrue(SnapshotFile.isSnapshot(dataFile));
+
+        FileBasedDB reopened = new FileBasedDB(location, "test");
+        Assert.assertNull(reopened.get("a"));
+        ByteBuffer b = reopened.getBuffer("b");
+        Assert.assertTrue(b.isReadOnly());
+        Assert.assertEquals('2', b.get(0));
+        reopened.get("b")[0] = 'x';
+        Assert.assertEquals("2", new String(reopened.get("b"), Charsets.UTF_8));
+        reopened.close();
+    }
+
+    @Test
+    public void testLegacyDataFileIsMigrated() throws IOException {
+        File namespace = new File(location, "test");
+        namespace.mkdirs();
+        try (DataOutputStream stream = new DataOutputStream(new FileOutputStream(new File(namespace, "data.db")))) {
+            stream.writeUTF("mac-address");
+            stream.writeInt(3);
+            stream.write(new byte[] { 1, 2, 3 });
+        }
+
+        FileBasedDB db = new FileBasedDB(location, "test");
+        Assert.assertArrayEquals(new byte[] { 1, 2, 3 }, db.get("mac-address"));
+        db.compact();
+        db.close();
+
+        FileBasedDB reopened = new FileBasedDB(location, "test");
+        Assert.assertArrayEquals(new byte[] { 1, 2, 3 }, reopened.get("mac-address"));
+        reopened.close();
+    }
+
+    @Test
+    public void testDurabilityLevels() throws Exception {
+        FileBasedDB db = new FileBasedDB(location, "test");
+        CompletableFuture<Void> batched = db.put("a", new byte[] { 1 }, Durability.BATCHED);
+        CompletableFuture<Void> fsync = db.put("b", new byte[] { 2 }, Durability.FSYNC);
+        fsync.get(5, TimeUnit.SECONDS);
+        batched.get(5, TimeUnit.SECONDS);
+        // A writer on the flush thread itself gets its future back rather than waiting for itself.
+        CompletableFuture<Void> fromFlusher = FileBasedDB.EXECUTOR
+                .submit(() -> db.put("d", new byte[] { 4 }, Durability.FSYNC)).get(5, TimeUnit.SECONDS);
+        fromFlusher.get(5, TimeUnit.SECONDS);
+        Assert.assertTrue(db.put("c", new byte[] { 3 }, Durability.ASYNC).isDone());
+        db.close();
+    }
+
+    @Test
+    public void testTypedAccessors() throws IOException {
+        FileBasedDB db = new FileBasedDB(location, "test");
+        db.putInt("int", 42);
+        db.putLong("long", Long.MAX_VALUE);
+        db.putDouble("double", 21.5);
+        db.putBoolean("boolean", true);
+        db.put("string", "value", DBCodecs.UTF8);
+        db.compact();
+        db.close();
+
+        FileBasedDB reopened = new FileBasedDB(location, "test");
+        Assert.assertEquals(42, reopened.getInt("int", 0));
+        Assert.assertEquals(Long.MAX_VALUE, reopened.getLong("long", 0));
+        Assert.assertEquals(21.5, reopened.getDouble("double", 0), 0);
+        Assert.assertTrue(reopened.getBoolean("boolean", false));
+        Assert.assertEquals(7, reopened.getInt("missing", 7));
+        Assert.assertEquals("value", reopened.get("string", DBCodecs.UTF8));
+        Assert.assertEquals("value", reopened.putIfAbsent("string", "other"));
+        reopened.close();
+    }
+
+    @Test
+    public void testWriteBatchIsOneRecord() throws IOException {
+        FileBasedDB db = new FileBasedDB(location, "test");
+        db.put("a", "1");
+        db.write(new WriteBatch().put("b", "2").putInt("c", 3).remove("a"), Durability.FSYNC);
+        db.close();
+
+        File segment = new File(location, "test").listFiles((dir, name) -> name.endsWith(".log"))[0];
+        long withBatch = segment.length();
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(withBatch - 1);
+        }
+
+        // A torn batch is dropped as a whole.
+        FileBasedDB reopened = new FileBasedDB(location, "test");
+        Assert.assertEquals("1", new String(reopened.get("a"), Charsets.UTF_8));
+        Assert.assertNull(reopened.get("b"));
+        Assert.assertEquals(0, reopened.getInt("c", 0));
+        reopened.write(new WriteBatch().put("b", "2").putInt("c", 3).remove("a"));
+        reopened.close();
+
+        FileBasedDB again = new FileBasedDB(location, "test");
+        Assert.assertNull(again.get("a"));
+        Assert.assertEquals("2", new String(again.get("b"), Charsets.UTF_8));
+        Assert.assertEquals(3, again.getInt("c", 0));
+        again.close();
+    }
+
+    @Test
+    public void testPrefixScan() {
+        FileBasedDB db = new FileBasedDB(location, "test");
+        db.put("user/b", "2");
+        db.put("user/a", "1");
+        db.put("user", "0");
+        db.put("users", "x");
+        db.put("other", "y");
+
+        FileBasedDB.Cursor cursor = db.scan("user/");
+        Assert.assertTrue(cursor.next());
+        Assert.assertEquals("user/a", cursor.key());
+        Assert.assertEquals('1', cursor.value().get(0));
+        Assert.assertTrue(cursor.next());
+        Assert.assertEquals("user/b", cursor.key());
+        Assert.assertFalse(cursor.next());
+
+        int count = 0;
+        for (cursor = db.scan("o", "user/b"); cursor.next();)
+            count++;
+        Assert.assertEquals(3, count);
+        db.close();
+    }
+
+    @Test
+    public void testCompactionEvictsHeapValues() throws IOException {
+        FileBasedDB db = new FileBasedDB(location, "test");
+        db.put("a", "1");
+        db.put("b", "2");
+        db.get("a");
+        Assert.assertEquals(1, db.stats().heapHits);
+        Assert.assertEquals(2, db.stats().heapBytes);
+
+        db.compact();
+        db.put("c", "3");
+        Assert.assertEquals("1", new String(db.get("a"), Charsets.UTF_8));
+        FileBasedDB.Stats stats = db.stats();
+        Assert.assertEquals(2, stats.evictions);
+        Assert.assertEquals(1, stats.diskReads);
+        Assert.assertEquals(1, stats.heapBytes);
+        db.close();
+    }
+
+    @Test
+    public void testHeapBytesFollowOverwritesAndRemoves() throws IOException {
+        FileBasedDB db = new FileBasedDB(location, "test");
+        db.put("a", "1234");
+        db.put("a", "12");
+        db.put("b", "123");
+        Assert.assertEquals(5, db.stats().heapBytes);
+        db.remove("a");
+        db.write(new WriteBatch().remove("b").put("c", "1"));
+        Assert.assertEquals(1, db.stats().heapBytes);
+
+        // Mapped values never counted, replacing or removing them takes nothing off.
+        db.compact();
+        Assert.assertEquals(0, db.stats().heapBytes);
+        db.put("c", "12");
+        Assert.assertEquals(2, db.stats().heapBytes);
+        db.put("d", "1");
+        db.compact();
+        db.remove("d");
+        Assert.assertEquals(0, db.stats().heapBytes);
+        db.put("e", "1");
+        db.clear();
+        Assert.assertEquals(0, db.stats().heapBytes);
+        db.close();
+
+        FileBasedDB reopened = new FileBasedDB(location, "test");
+        Assert.assertEquals(0, reopened.stats().heapBytes);
+        reopened.close();
+    }
+
+    @Test
+    public void testPutCopiesTheValue() throws IOException {
+        FileBasedDB db = new FileBasedDB(location, "test");
+        byte[] value = { 1, 2 };
+        db.put("a", value);
+        db.put("b", value, DBCodecs.BYTES);
+        db.write(new WriteBatch().put("c", value));
+        value[0] = 9;
+        Assert.assertArrayEquals(new byte[] { 1, 2 }, db.get("a"));
+        Assert.assertArrayEquals(new byte[] { 1, 2 }, db.get("b"));
+        Assert.assertArrayEquals(new byte[] { 1, 2 }, db.get("c"));
+        db.close();
+    }
+
+    @Test
+    public void testDeflatedSnapshot() throws IOException {
+        Map<String, ByteBuffer> rows = new TreeMap<>();
+        for (int i = 0; i < 500; i++)
+            rows.put("AA:BB:CC:DD:EE:FF" + i, ByteBuffer.wrap(("{\"value\":" + i + "}").getBytes(Charsets.UTF_8)));
+        File raw = new File(location, "raw.db");
+        File deflated = new File(location, "deflated.db");
+        SnapshotFile.write(raw, rows, 7, false);
+        SnapshotFile.write(deflated, rows, 7, true);
+        Assert.assertTrue(deflated.length() < raw.length());
+
+        Map<String, ByteBuffer> read = new TreeMap<>();
+        Assert.assertEquals(7, SnapshotFile.read(deflated, read::put));
+        Assert.assertEquals(rows, read);
+        // Inflated onto the heap, where the namespace counts it against its budget.
+        for (ByteBuffer value : read.values())
+            Assert.assertFalse(value.isDirect());
+    }
+}
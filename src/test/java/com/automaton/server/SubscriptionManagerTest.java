@@ -0,0 +1,239 @@
+package com.automaton.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.*;
+
+import com.automaton.accessories.HumiditySensor;
+import com.automaton.characteristics.AbstractFloatCharacteristic.Humidity;
+import com.automaton.characteristics.CharacteristicCallback;
+import com.automaton.characteristics.CharacteristicStates.PowerState;
+import com.automaton.history.HistoryStore;
+import com.automaton.http.CharacteristicEvent;
+import com.automaton.http.HomekitConnection;
+
+public class SubscriptionManagerTest {
+    private final SubscriptionManager subscriptions = new SubscriptionManager();
+    private final AtomicReference<CharacteristicCallback> callback = new AtomicReference<>();
+    private final AtomicInteger driverSubscriptions = new AtomicInteger();
+    private final PowerState power = new PowerState(() -> CompletableFuture.completedFuture(true), v -> {
+    }, c -> {
+        callback.set(c);
+        Assert.assertEquals(1, driverSubscriptions.incrementAndGet());
+    }, () -> {
+        callback.set(null);
+        Assert.assertEquals(0, driverSubscriptions.decrementAndGet());
+    });
+
+    @Test
+    public void testPublishReachesSubscribers() throws Exception {
+        TestConnection first = new TestConnection();
+        TestConnection second = new TestConnection();
+        subscriptions.addSubscription(2, 9, power, first);
+        subscriptions.addSubscription(2, 9, power, second);
+        Assert.assertEquals(1, driverSubscriptions.get());
+        // Both get the initial state once it has been read.
+        first.await(1);
+        second.await(1);
+
+        callback.get().changed();
+        Assert.assertEquals(2, first.events.size());
+        Assert.assertEquals(2, second.events.size());
+        Assert.assertSame(first.events.get(1), second.events.get(1));
+
+        subscriptions.removeConnection(first);
+        callback.get().changed();
+        Assert.assertEquals(2, first.events.size());
+        Assert.assertEquals(3, second.events.size());
+
+        subscriptions.removeSubscription(2, 9, second);
+        Assert.assertEquals(0, driverSubscriptions.get());
+        Assert.assertNull(callback.get());
+    }
+
+    @Test
+    public void testConcurrentChangesKeepDriverInStep() throws Exception {
+        TestConnection[] connections = new TestConnection[4];
+        for (int i = 0; i < connections.length; i++)
+            connections[i] = new TestConnection();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new CopyOnWriteArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < 2000; i++) {
+                        TestConnection connection = connections[random.nextInt(connections.length)];
+                        if (random.nextBoolean())
+                            subscriptions.addSubscription(2, 9, power, connection);
+                        else if (random.nextBoolean())
+                            subscriptions.removeSubscription(2, 9, connection);
+                        else
+                            subscriptions.removeConnection(connection);
+                    }
+                }));
+            }
+            for (Future<?> future : futures)
+                future.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        // Initial states the saturated pool rejected are not sent at all, never as a made up default.
+        for (TestConnection connection : connections) {
+            for (CharacteristicEvent event : connection.events)
+                Assert.assertEquals(true, event.getValue());
+        }
+        subscriptions.addSubscription(2, 9, power, connections[0]);
+        Assert.assertEquals(1, driverSubscriptions.get());
+        for (TestConnection connection : connections)
+            subscriptions.removeConnection(connection);
+        Assert.assertEquals(0, driverSubscriptions.get());
+    }
+
+    @Test
+    public void testTrackedChangesAreRecordedRegardlessOfEvents() throws Exception {
+        HistoryStore history = new HistoryStore(4);
+        SubscriptionManager subscriptions = new SubscriptionManager(history);
+        TestHumiditySensor sensor = new TestHumiditySensor();
+        Humidity humidity = new Humidity(sensor);
+        subscriptions.track(2, 10, humidity);
+        Assert.assertNotNull(sensor.callback);
+
+        // Nobody is subscribed, the changes are recorded anyway.
+        sensor.change(40);
+        awaitSample(history, 40);
+        sensor.change(41);
+        awaitSample(history, 41);
+
+        // The event policy holds back the second change, its value is still recorded.
+        TestConnection connection = new TestConnection();
+        subscriptions.addSubscription(2, 10, humidity, connection);
+        connection.await(1);
+        sensor.change(50);
+        connection.await(2);
+        awaitSample(history, 50);
+        int reads = sensor.reads.get();
+        sensor.change(55);
+        awaitSample(history, 55);
+        Assert.assertEquals(2, connection.events.size());
+        // Only the history read the device.
+        Assert.assertEquals(1, sensor.reads.get() - reads);
+
+        // Still tracked once the controller is gone.
+        subscriptions.removeConnection(connection);
+        Assert.assertNotNull(sensor.callback);
+        subscriptions.untrack(2);
+        Assert.assertNull(sensor.callback);
+    }
+
+    @Test
+    public void testHeldBackChangeIsNotRead() throws Exception {
+        TestHumiditySensor sensor = new TestHumiditySensor();
+        Humidity humidity = new Humidity(sensor);
+        TestConnection connection = new TestConnection();
+        subscriptions.addSubscription(2, 10, humidity, connection);
+        connection.await(1);
+        sensor.change(50);
+        connection.await(2);
+        int reads = sensor.reads.get();
+        sensor.change(55);
+        Assert.assertEquals(reads, sensor.reads.get());
+        Assert.assertEquals(2, connection.events.size());
+        subscriptions.removeConnection(connection);
+    }
+
+    private static void awaitSample(HistoryStore history, double value) throws InterruptedException {
+        for (int i = 0; i < 500; i++) {
+            List<Double> samples = samples(history);
+            if (!samples.isEmpty() && samples.get(samples.size() - 1) == value)
+                return;
+            Thread.sleep(10);
+        }
+        Assert.fail("No sample of " + value + " in " + samples(history));
+    }
+
+    private static List<Double> samples(HistoryStore history) {
+        List<Double> samples = new ArrayList<>();
+        history.query(2, 10, 0, Long.MAX_VALUE, (time, value) -> samples.add(value));
+        return samples;
+    }
+
+    private static class TestHumiditySensor implements HumiditySensor {
+        final AtomicInteger reads = new AtomicInteger();
+        volatile double humidity;
+        volatile CharacteristicCallback callback;
+
+        void change(double humidity) {
+            this.humidity = humidity;
+            callback.changed();
+        }
+
+        @Override
+        public CompletableFuture<Double> getCurrentRelativeHumidity() {
+            reads.incrementAndGet();
+            return CompletableFuture.completedFuture(humidity);
+        }
+
+        @Override
+        public int getId() {
+            return 2;
+        }
+
+        @Override
+        public String getLabel() {
+            return "Humidity";
+        }
+
+        @Override
+        public void identify() {
+        }
+
+        @Override
+        public String getSerialNumber() {
+            return "1";
+        }
+
+        @Override
+        public String getModel() {
+            return "Test";
+        }
+
+        @Override
+        public String getManufacturer() {
+            return "Test";
+        }
+
+        @Override
+        public void subscribe(CharacteristicCallback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void unsubscribe() {
+            this.callback = null;
+        }
+    }
+
+    private static class TestConnection extends HomekitConnection {
+        final List<CharacteristicEvent> events = new CopyOnWriteArrayList<>();
+
+        TestConnection() {
+            super(null, null, null, null);
+        }
+
+        @Override
+        public void event(CharacteristicEvent event) {
+            events.add(event);
+        }
+
+        void await(int count) throws InterruptedException {
+            for (int i = 0; i < 500 && events.size() < count; i++)
+                Thread.sleep(10);
+            Assert.assertEquals(count, events.size());
+        }
+    }
+}